@@ -0,0 +1,293 @@
+package org.chris_martin.delaunay;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.chris_martin.delaunay.Geometry.Line;
+import org.chris_martin.delaunay.Geometry.Vec;
+import org.chris_martin.delaunay.Mesh.Edge;
+import org.chris_martin.delaunay.Mesh.VertexConfig;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static org.chris_martin.delaunay.Geometry.aToB;
+import static org.chris_martin.delaunay.Geometry.xy;
+import static org.chris_martin.delaunay.TriangulationBenchmark.randomPoints;
+
+/**
+ * Times the mesh operations and the geometry primitives under them: triangulation at several
+ * sizes, physics steps, cuts of several lengths, removal, insertion, iterating the edges, and
+ * intersect, overlap and bulge. For each it reports the best time per operation over several
+ * rounds, after warming up, and the bytes the benchmark thread allocated per operation, as counted
+ * by the JVM (HotSpot's com.sun.management.ThreadMXBean; n/a elsewhere). Everything runs on
+ * the benchmark thread, so the count is all the allocation there is.
+ *
+ * With -save the results are written to a file, and with -baseline a file saved before is
+ * read and each result is shown as a change from it, so a change to the code can be
+ * measured against the tree before it.
+ *
+ * Usage: MeshBenchmark [-only regex] [-rounds r] [-save file] [-baseline file]
+ */
+public class MeshBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    Pattern only = null;
+    int rounds = 10;
+    Path save = null, baseline = null;
+    for (int i = 0; i < args.length; i += 2) {
+      String a = args[i];
+      if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + a);
+      String v = args[i + 1];
+      if (a.equals("-only")) only = Pattern.compile(v);
+      else if (a.equals("-rounds")) rounds = Integer.parseInt(v);
+      else if (a.equals("-save")) save = Paths.get(v);
+      else if (a.equals("-baseline")) baseline = Paths.get(v);
+      else throw new IllegalArgumentException("unknown option " + a);
+    }
+    Map<String, double[]> before = baseline != null ? read(baseline) : null;
+
+    System.out.printf("%-24s %14s %14s%s%n", "", "time", "allocated", before != null ? "    vs " + baseline : "");
+    List<String> lines = newArrayList();
+    for (Case c : cases()) {
+      if (only != null && !only.matcher(c.name).find()) continue;
+      double[] r = measure(c, rounds);
+      String change = "";
+      double[] b = before != null ? before.get(c.name) : null;
+      if (b != null) change = String.format("    %+6.1f%% %+10.1f B", 100 * (r[0] / b[0] - 1), r[1] - b[1]);
+      System.out.printf("%-24s %11.1f ns %12s%s%n", c.name, r[0], r[1] < 0 ? "n/a" : String.format("%.1f B", r[1]), change);
+      lines.add(c.name + " " + r[0] + " " + r[1]);
+    }
+    if (save != null) Files.write(save, lines, Charset.forName("US-ASCII"));
+  }
+
+  /** Results keyed by name, as "name ns bytes" lines written by -save. */
+  static Map<String, double[]> read(Path path) throws IOException {
+    Map<String, double[]> results = newHashMap();
+    for (String line : Files.readAllLines(path, Charset.forName("US-ASCII"))) {
+      String[] s = line.trim().split("\\s+");
+      if (s.length == 3) results.put(s[0], new double[]{ Double.parseDouble(s[1]), Double.parseDouble(s[2]) });
+    }
+    return results;
+  }
+
+  /* What the cases compute goes here, so that the JIT cannot drop the work. */
+  static volatile double sink;
+
+  /**
+   * One benchmark. setup is not timed and is called before every round; run does ops
+   * operations on what setup made and returns something computed from them.
+   */
+  abstract static class Case {
+    final String name;
+    final int ops;
+    Case(String name, int ops) { this.name = name; this.ops = ops; }
+    void setup() {}
+    abstract double run();
+  }
+
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+  /** Bytes allocated so far by the current thread, or -1 if the JVM does not count them. */
+  static long allocated() {
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+    return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * The best time per operation in nanoseconds and the fewest bytes allocated per operation
+   * over rounds rounds, after as many warmup rounds.
+   */
+  static double[] measure(Case c, int rounds) {
+    long bestTime = Long.MAX_VALUE, bestBytes = Long.MAX_VALUE;
+    for (int r = -rounds; r < rounds; r++) {
+      c.setup();
+      long bytes = allocated(), start = System.nanoTime();
+      sink += c.run();
+      long time = System.nanoTime() - start;
+      bytes = bytes < 0 ? -1 : allocated() - bytes;
+      if (r >= 0) { bestTime = Math.min(bestTime, time); bestBytes = Math.min(bestBytes, bytes); }
+    }
+    return new double[]{ (double) bestTime / c.ops, bestBytes < 0 ? -1 : (double) bestBytes / c.ops };
+  }
+
+  static List<Case> cases() {
+    List<Case> cases = newArrayList();
+    for (int n : new int[]{ 1000, 10000, 100000 }) cases.add(triangulate(n));
+    for (int n : new int[]{ 10000, 100000 }) cases.add(physics(n));
+    for (int length : new int[]{ 50, 200, 800 }) cases.add(cut(20000, length, false));
+    for (int length : new int[]{ 50, 800 }) cases.add(cut(20000, length, true));
+    for (int length : new int[]{ 50, 800 }) cases.add(remove(20000, length));
+    cases.add(insert(20000, 2000));
+    for (boolean cut : new boolean[]{ false, true }) cases.add(locate(100000, cut));
+    cases.add(edges(100000));
+    cases.addAll(geometry(1 << 12));
+    return cases;
+  }
+
+  /** new Mesh(points) on n random points, repeated to triangulate about 10^5 points a round. */
+  static Case triangulate(int n) {
+    final List<VertexConfig> points = randomPoints(n, new Random(6491));
+    final int meshes = Math.max(1, 100000 / n);
+    return new Case("triangulate/" + n, meshes) {
+      double run() {
+        double s = 0;
+        for (int i = 0; i < meshes; i++) s += new Mesh(points).triangles().size();
+        return s;
+      }
+    };
+  }
+
+  /**
+   * Sequential physics steps at 30 frames a second on a fresh mesh of n random points every
+   * round, so that each round starts from the same state; about 10^5 vertex updates a round.
+   */
+  static Case physics(int n) {
+    final List<VertexConfig> points = randomPoints(n, new Random(6491));
+    final int steps = Math.max(1, 100000 / n);
+    return new Case("physics/" + n, steps) {
+      Mesh mesh;
+      void setup() { mesh = new Mesh(points); }
+      double run() {
+        for (int i = 0; i < steps; i++) mesh.physics(1000. / 30);
+        return mesh.vertices().iterator().next().loc().x();
+      }
+    };
+  }
+
+  /**
+   * Segments of the given length across the middle of an 800 by 600 mesh of n points, at
+   * evenly spaced heights and random angles.
+   */
+  static List<Line> strokes(int count, int length) {
+    Random random = new Random(length);
+    List<Line> lines = newArrayList();
+    for (int i = 0; i < count; i++) {
+      double angle = (random.nextDouble() - .5) * .5, x = 400 - length / 2. * Math.cos(angle), y = 100 + 400. * i / count;
+      lines.add(aToB(xy(x, y), xy(x + length * Math.cos(angle), y + length * Math.sin(angle))));
+    }
+    return lines;
+  }
+
+  /** Mesh.cut along strokes of the given length, each as its own cut, on a fresh mesh every round, flipping edges after if asked. */
+  static Case cut(final int n, int length, final boolean flip) {
+    final List<VertexConfig> points = randomPoints(n, new Random(6491));
+    final List<Line> cuts = strokes(8, length);
+    return new Case((flip ? "cut+flip/" : "cut/") + length, cuts.size()) {
+      Mesh mesh;
+      void setup() { mesh = new Mesh(points); mesh.setFlipAfterCut(flip); }
+      double run() {
+        for (Line cut : cuts) { mesh.cut(cut); mesh.stopCutting(); }
+        return mesh.triangles().size();
+      }
+    };
+  }
+
+  /** Mesh.remove of the triangles on the edges crossed by strokes of the given length, on a fresh mesh every round. */
+  static Case remove(final int n, int length) {
+    final List<VertexConfig> points = randomPoints(n, new Random(6491));
+    final List<Line> strokes = strokes(8, length);
+    return new Case("remove/" + length, strokes.size()) {
+      Mesh mesh;
+      void setup() { mesh = new Mesh(points); }
+      double run() {
+        for (Line stroke : strokes) mesh.remove(stroke);
+        return mesh.triangles().size();
+      }
+    };
+  }
+
+  /** Mesh.insert of count random points into a fresh mesh of n random points every round, per point. */
+  static Case insert(final int n, int count) {
+    final List<VertexConfig> points = randomPoints(n, new Random(6491)), inserted = randomPoints(count, new Random(6492));
+    return new Case("insert/" + n, count) {
+      Mesh mesh;
+      void setup() { mesh = new Mesh(points); }
+      double run() { return mesh.insert(inserted).size(); }
+    };
+  }
+
+  /**
+   * Mesh.locate of random points, one after another, in a mesh of n random points; or, if
+   * asked, of points on either side of a long cut across it, where walks run into the slit.
+   */
+  static Case locate(int n, boolean cut) {
+    final Mesh mesh = new Mesh(randomPoints(n, new Random(6491)));
+    List<VertexConfig> points = randomPoints(10000, new Random(6493));
+    if (cut) {
+      mesh.cut(aToB(xy(100, 300), xy(700, 320)));
+      mesh.stopCutting();
+      for (int i = 0; i < points.size(); i++) {
+        Vec p = points.get(i).loc;
+        points.set(i, new VertexConfig(xy(150 + p.x() / 800 * 500, 300 + (i % 2 == 0 ? 1 : -1) * p.y() / 600 * 20), null));
+      }
+    }
+    final List<VertexConfig> queries = points;
+    return new Case((cut ? "locate/cut/" : "locate/") + n, queries.size()) {
+      double run() {
+        double s = 0;
+        for (VertexConfig q : queries) { Mesh.Triangle t = mesh.locate(q.loc); if (t != null) s += t.id(); }
+        return s;
+      }
+    };
+  }
+
+  /** Iterating Mesh.edges() of a mesh of n random points, per edge. */
+  static Case edges(int n) {
+    final Mesh mesh = new Mesh(randomPoints(n, new Random(6491)));
+    return new Case("edges/" + n, mesh.edges().size()) {
+      double run() {
+        double s = 0;
+        for (Edge e : mesh.edges()) s += e.id();
+        return s;
+      }
+    };
+  }
+
+  /** The Geometry primitives on count random pairs of segments, per pair, 100 times over. */
+  static List<Case> geometry(final int count) {
+    Random random = new Random(7);
+    final double[] c = new double[8 * count];
+    for (int i = 0; i < c.length; i++) c[i] = random.nextDouble() * 800;
+    final Line[] lines = new Line[2 * count];
+    for (int i = 0; i < lines.length; i++) lines[i] = aToB(xy(c[4 * i], c[4 * i + 1]), xy(c[4 * i + 2], c[4 * i + 3]));
+    final int passes = 100, ops = passes * count;
+    List<Case> cases = newArrayList();
+    cases.add(new Case("intersect", ops) { double run() {
+      double s = 0;
+      for (int p = 0; p < passes; p++) for (int i = 0; i < count; i++) { Vec v = Geometry.intersect(lines[2 * i], lines[2 * i + 1]); s += v.x(); }
+      return s;
+    }});
+    cases.add(new Case("overlap/lines", ops) { double run() {
+      double s = 0;
+      for (int p = 0; p < passes; p++) for (int i = 0; i < count; i++) if (Geometry.overlap(lines[2 * i], lines[2 * i + 1])) s++;
+      return s;
+    }});
+    cases.add(new Case("overlap/coordinates", ops) { double run() {
+      double s = 0;
+      for (int p = 0; p < passes; p++) for (int i = 0; i < 8 * count; i += 8)
+        if (Geometry.overlap(c[i], c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5], c[i + 6], c[i + 7])) s++;
+      return s;
+    }});
+    cases.add(new Case("bulge/line", ops) { double run() {
+      double s = 0;
+      for (int p = 0; p < passes; p++) for (int i = 0; i < count; i++) s += lines[2 * i].bulge(lines[2 * i + 1].a());
+      return s;
+    }});
+    cases.add(new Case("bulge/coordinates", ops) { double run() {
+      double s = 0;
+      for (int p = 0; p < passes; p++) for (int i = 0; i < 8 * count; i += 8) s += Geometry.bulge(c[i], c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5]);
+      return s;
+    }});
+    return cases;
+  }
+
+}
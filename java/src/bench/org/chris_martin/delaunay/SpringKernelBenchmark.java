@@ -0,0 +1,72 @@
+package org.chris_martin.delaunay;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.chris_martin.delaunay.Mesh.VertexConfig;
+
+import static org.chris_martin.delaunay.TriangulationBenchmark.randomPoints;
+
+/**
+ * Compares the scalar spring kernel with the best one this JVM can load: first the kernels
+ * alone on batches of springs, then whole physics steps, against the Gauss-Seidel path the
+ * sweeps used before. Run with --add-modules jdk.incubator.vector (as the bench target does
+ * on JDK 16 and later) for the vector kernel.
+ *
+ * Usage: SpringKernelBenchmark [points] [repetitions]
+ */
+public class SpringKernelBenchmark {
+
+  public static void main(String[] args) {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int reps = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    SpringKernel best = SpringKernel.best();
+    System.out.printf("%d points, %d processors, best kernel: %s%n", n, Runtime.getRuntime().availableProcessors(), best);
+
+    int springs = 1 << 13;
+    System.out.printf("%-24s %10.2f ns/spring%n", "kernel scalar", kernel(SpringKernel.SCALAR, springs, reps));
+    System.out.printf("%-24s %10.2f ns/spring%n", "kernel " + best, kernel(best, springs, reps));
+
+    List<VertexConfig> points = randomPoints(n, new Random(6491));
+    ForkJoinPool pool = new ForkJoinPool();
+    System.out.printf("%-24s %10.1f ms/step%n", "Gauss-Seidel", step(points, null, null, reps));
+    System.out.printf("%-24s %10.1f ms/step%n", "Jacobi scalar", step(points, pool, SpringKernel.SCALAR, reps));
+    System.out.printf("%-24s %10.1f ms/step%n", "Jacobi " + best, step(points, pool, best, reps));
+    pool.shutdown();
+  }
+
+  /** Best of reps rounds of forces and velocities over a batch, after warming up, per spring. */
+  static double kernel(SpringKernel kernel, int n, int reps) {
+    Random random = new Random(1);
+    double[][] s = new double[5][n];
+    for (double[] a : s) for (int i = 0; i < n; i++) a[i] = random.nextGaussian() * 10;
+    double[] fx = new double[n], fy = new double[n];
+    int rounds = 2000;
+    long best = Long.MAX_VALUE;
+    for (int r = -1; r < reps; r++) {
+      long start = System.nanoTime();
+      for (int k = 0; k < rounds; k++) {
+        kernel.forces(n, s[0], s[1], s[2], s[3], s[4], fx, fy);
+        kernel.velocities(n, s[0], s[1], fx, fy);
+      }
+      if (r >= 0) best = Math.min(best, System.nanoTime() - start);
+    }
+    return (double) best / rounds / n;
+  }
+
+  /** Best of reps physics steps on a fresh mesh, after a few warmup steps, in milliseconds. */
+  static double step(List<VertexConfig> points, ForkJoinPool pool, SpringKernel kernel, int reps) {
+    Mesh mesh = new Mesh(points);
+    if (kernel != null) mesh.springKernel = kernel;
+    for (int i = 0; i < 3; i++) mesh.physics(1000. / 30, pool);
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < reps; i++) {
+      long start = System.nanoTime();
+      mesh.physics(1000. / 30, pool);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best / 1e6;
+  }
+
+}
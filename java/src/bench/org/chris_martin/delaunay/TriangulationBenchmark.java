@@ -0,0 +1,60 @@
+package org.chris_martin.delaunay;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.chris_martin.delaunay.Mesh.VertexConfig;
+import org.chris_martin.delaunay.Mesh.VertexPhysics;
+
+import static org.chris_martin.delaunay.Geometry.xy;
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Times new Mesh(points) sequentially and on pools of 1, 2, 4, ... threads up to the
+ * number of available processors, or up to max threads if given, and reports the speedup of
+ * each over the sequential run. Pools with more threads than processors only show what the
+ * forking costs; a speedup needs a run on a machine with several cores.
+ *
+ * Usage: TriangulationBenchmark [points] [repetitions] [max threads]
+ */
+public class TriangulationBenchmark {
+
+  public static void main(String[] args) {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int reps = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int processors = Runtime.getRuntime().availableProcessors();
+    int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : processors;
+    List<VertexConfig> points = randomPoints(n, new Random(6491));
+    System.out.printf("%d points, %d processors%n", n, processors);
+    if (processors == 1) System.out.println("one processor: the pooled runs show overhead, not speedup");
+    double sequential = time(points, null, reps);
+    System.out.printf("%-12s %10.1f ms%n", "sequential", sequential);
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      double t = time(points, pool, reps);
+      pool.shutdown();
+      System.out.printf("%-12s %10.1f ms %6.2fx%n", threads + " threads", t, sequential / t);
+    }
+  }
+
+  static List<VertexConfig> randomPoints(int n, Random random) {
+    List<VertexConfig> ps = newArrayList();
+    for (int i = 0; i < n; i++)
+      ps.add(new VertexConfig(xy(random.nextDouble() * 800, random.nextDouble() * 600), VertexPhysics.FREE));
+    return ps;
+  }
+
+  /** Best of reps runs, after one warmup run, in milliseconds. */
+  static double time(List<VertexConfig> points, ForkJoinPool pool, int reps) {
+    new Mesh(points, pool);
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < reps; i++) {
+      long start = System.nanoTime();
+      new Mesh(points, pool);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best / 1e6;
+  }
+
+}
@@ -0,0 +1,62 @@
+package org.chris_martin.delaunay;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Counters that also mark each physics step and each cut with a JFR event, so that a
+ * recording shows them on the timeline of the thread that ran them. Loaded by
+ * Metrics.counters() only; an event no recording enables is never made.
+ */
+final class JfrMetrics extends Metrics.Counters {
+
+  @Name("org.chris_martin.delaunay.PhysicsStep") @Label("Physics Step") @Category("Delaunay")
+  @Description("One call of Mesh.physics")
+  static final class PhysicsStep extends Event {
+    @Label("Vertices") int vertices;
+    @Label("Sweeps") int sweeps;
+    @Label("Sweep Time") @Timespan(Timespan.NANOSECONDS) long sweepTime;
+  }
+
+  @Name("org.chris_martin.delaunay.Cut") @Label("Cut") @Category("Delaunay")
+  @Description("One call of Mesh.cut along a segment")
+  static final class Cut extends Event {
+    @Label("Edges Split") int edgesSplit;
+  }
+
+  private static final EventType physicsStep = EventType.getEventType(PhysicsStep.class), cut = EventType.getEventType(Cut.class);
+
+  public Object physicsStarting() {
+    if (!physicsStep.isEnabled()) return null;
+    PhysicsStep e = new PhysicsStep(); e.begin();
+    return e;
+  }
+
+  public void physicsStep(Object started, int vertices, int sweeps, long sweepNanos, long nanos) {
+    super.physicsStep(started, vertices, sweeps, sweepNanos, nanos);
+    if (!(started instanceof PhysicsStep)) return;
+    PhysicsStep e = (PhysicsStep) started;
+    e.vertices = vertices; e.sweeps = sweeps; e.sweepTime = sweepNanos;
+    e.commit();
+  }
+
+  public Object cutStarting() {
+    if (!cut.isEnabled()) return null;
+    Cut e = new Cut(); e.begin();
+    return e;
+  }
+
+  public void cut(Object started, int edgesSplit, long nanos) {
+    super.cut(started, edgesSplit, nanos);
+    if (!(started instanceof Cut)) return;
+    Cut e = (Cut) started;
+    e.edgesSplit = edgesSplit;
+    e.commit();
+  }
+
+}
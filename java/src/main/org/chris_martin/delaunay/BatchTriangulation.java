@@ -0,0 +1,77 @@
+package org.chris_martin.delaunay;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.chris_martin.delaunay.Mesh.VertexConfig;
+
+/**
+ * Triangulates a point file and saves the mesh, as a batch job without a display, reporting
+ * how fast the points were read, how long the triangulation and the save took, and how much
+ * memory the run needed at most.
+ *
+ * Usage: BatchTriangulation -in points [-out mesh] [-threads t] [-offheap]
+ *
+ * The points are read by PointFile, as text or binary. Without -out the mesh is not saved;
+ * with -threads it is triangulated on a pool of that many threads.
+ */
+public final class BatchTriangulation {
+
+  private BatchTriangulation() {}
+
+  public static void main(String[] args) throws IOException {
+    Path in = null, out = null;
+    int threads = 0;
+    boolean offHeap = false;
+    for (int i = 0; i < args.length; i++) {
+      String a = args[i];
+      if (a.equals("-offheap")) { offHeap = true; continue; }
+      if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + a);
+      String v = args[++i];
+      if (a.equals("-in")) in = Paths.get(v);
+      else if (a.equals("-out")) out = Paths.get(v);
+      else if (a.equals("-threads")) threads = Integer.parseInt(v);
+      else throw new IllegalArgumentException("unknown option " + a);
+    }
+    if (in == null) throw new IllegalArgumentException("no -in file");
+
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) pool.resetPeakUsage();
+    long start = System.nanoTime();
+    List<VertexConfig> points = PointFile.read(in);
+    double seconds = (System.nanoTime() - start) / 1e9, megabytes = Files.size(in) / 1e6;
+    System.out.printf("%d points from %.1f MB in %.1f ms: %.1f MB/s, %.0f points/s%n",
+      points.size(), megabytes, seconds * 1e3, megabytes / seconds, points.size() / seconds);
+
+    ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : null;
+    start = System.nanoTime();
+    Mesh mesh = new Mesh(offHeap ? Mesh.Storage.OFF_HEAP : Mesh.Storage.HEAP);
+    mesh.setPoints(points, pool);
+    System.out.printf("%d vertices, %d triangles, triangulated %s in %.1f ms%n", mesh.vertices().size(),
+      mesh.triangles().size(), pool == null ? "sequentially" : "on " + threads + " threads", (System.nanoTime() - start) / 1e6);
+    points = null; // the mesh has copied them
+
+    if (out != null) {
+      start = System.nanoTime();
+      mesh.save(out);
+      System.out.printf("saved %.1f MB to %s in %.1f ms%n", Files.size(out) / 1e6, out, (System.nanoTime() - start) / 1e6);
+    }
+
+    long heap = 0, direct = 0;
+    for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans())
+      if (p.getType() == MemoryType.HEAP) heap += p.getPeakUsage().getUsed();
+    for (BufferPoolMXBean p : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+      if (p.getName().equals("direct")) direct = p.getMemoryUsed();
+    System.out.printf("peak heap %.1f MB (summed over pools), direct buffers %.1f MB at the end%n", heap / 1e6, direct / 1e6);
+    mesh.close();
+    if (pool != null) pool.shutdown();
+  }
+
+}
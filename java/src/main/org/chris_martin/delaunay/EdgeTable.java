@@ -0,0 +1,171 @@
+package org.chris_martin.delaunay;
+
+import java.util.Arrays;
+
+/**
+ * The edges of a mesh, each a pair of vertex slots with a stable id and a rest length.
+ * Every corner refers to the edge from its vertex to the next corner's; an edge lives while
+ * some corner refers to it. An edge no corner refers to any more is kept until collect(),
+ * so that one operation can take triangles down and put others up along the same edge
+ * without losing its rest length. Pairs are found through an open-addressed hash of ids,
+ * which a table filled by attach() builds only when it is first needed.
+ *
+ * The columns, and each corner's edge id, are kept by the mesh's store, so an off-heap
+ * mesh keeps its edges off the heap too. Only the stacks of free and dying ids are arrays.
+ */
+final class EdgeTable {
+
+  private final MeshStore store;
+  private MeshStore.Ints a, b, uses; // a is -1 for a free id
+  private MeshStore.Doubles rest;
+  private MeshStore.Ints hash; // ids plus one, zero for empty; linear probing
+  private boolean hashed = true;
+  private int[] free = new int[0], dying = new int[0];
+  private int ids, size, freeCount, dyingCount;
+
+  EdgeTable(MeshStore store) {
+    this.store = store;
+    a = store.ints(); b = store.ints(); uses = store.ints(); rest = store.doubles(); hash = store.ints();
+  }
+
+  int size() { return size; }
+
+  /** Ids are below this bound; not all of them are live. */
+  int ids() { return ids; }
+  boolean live(int e) { return a.get(e) >= 0; }
+  int a(int e) { return a.get(e); } int b(int e) { return b.get(e); }
+  double rest(int e) { return rest.get(e); } void rest(int e, double length) { rest.set(e, length); }
+
+  /** The edge from corner c's vertex to the next corner's. */
+  int of(int c) { return store.edgeOf(c); }
+
+  /** Makes room for the given number of edges at once, as a triangulation knows it will need. */
+  void reserve(int edges) {
+    if (edges > a.length()) grow(edges);
+    if (2 * edges > hash.length()) rehash(2 * edges);
+  }
+
+  /** Frees the columns; the table must not be used afterward. */
+  void free() { a.free(); b.free(); uses.free(); rest.free(); hash.free(); }
+
+  /** The live edge between the two vertex slots, or -1. */
+  int find(int u, int w) {
+    if (!hashed) rehash(Math.max(32, 2 * size));
+    int mask = hash.length() - 1;
+    if (mask < 0) return -1;
+    for (int h = slot(u, w), x; (x = hash.get(h)) != 0; h = (h + 1) & mask) {
+      int e = x - 1, ea = a.get(e), eb = b.get(e);
+      if (ea == u && eb == w || ea == w && eb == u) return e;
+    }
+    return -1;
+  }
+
+  /**
+   * Makes corner c refer to the edge between vertex slots u and w, adding it if there is
+   * none; a new edge's rest length is NaN until set.
+   */
+  int link(int c, int u, int w) {
+    int e = find(u, w);
+    if (e < 0) e = add(u, w);
+    uses.set(e, uses.get(e) + 1);
+    store.edgeOf(c, e);
+    return e;
+  }
+
+  /** Empties the table and makes ids [0, edges) for attach() to give their ends. */
+  void clear(int edges) {
+    free();
+    a = store.ints(); b = store.ints(); uses = store.ints(); rest = store.doubles(); hash = store.ints();
+    free = new int[0]; dying = new int[0]; freeCount = dyingCount = 0;
+    grow(edges);
+    ids = size = edges;
+    hashed = false;
+  }
+
+  /**
+   * Makes corner c refer to edge e, between vertex slots u and w, without looking the pair
+   * up. Returns false if e is already between other slots.
+   */
+  boolean attach(int c, int e, int u, int w) {
+    int ea = a.get(e), eb = b.get(e);
+    if (ea < 0) { a.set(e, u); b.set(e, w); }
+    else if (!(ea == u && eb == w || ea == w && eb == u)) return false;
+    uses.set(e, uses.get(e) + 1);
+    store.edgeOf(c, e);
+    return true;
+  }
+
+  /** Drops corner c's reference to its edge. */
+  void unlink(int c) {
+    int e = store.edgeOf(c), n = uses.get(e) - 1;
+    uses.set(e, n);
+    if (n == 0) dying = push(dying, dyingCount++, e);
+  }
+
+  /** Removes the edges no corner has referred to since they were unlinked. */
+  void collect() {
+    while (dyingCount > 0) {
+      int e = dying[--dyingCount];
+      if (uses.get(e) == 0 && a.get(e) >= 0) remove(e);
+    }
+  }
+
+  private int add(int u, int w) {
+    if (!hashed) rehash(Math.max(32, 2 * size));
+    int e = freeCount > 0 ? free[--freeCount] : ids++;
+    if (e == a.length()) grow(Math.max(16, 2 * e));
+    if (2 * (size + 1) > hash.length()) rehash(Math.max(32, 2 * hash.length()));
+    a.set(e, u); b.set(e, w); uses.set(e, 0); rest.set(e, Double.NaN);
+    size++;
+    int h = slot(u, w), mask = hash.length() - 1;
+    while (hash.get(h) != 0) h = (h + 1) & mask;
+    hash.set(h, e + 1);
+    return e;
+  }
+
+  private void remove(int e) {
+    if (!hashed) rehash(Math.max(32, 2 * size));
+    int mask = hash.length() - 1, h = slot(a.get(e), b.get(e));
+    while (hash.get(h) != e + 1) h = (h + 1) & mask;
+    a.set(e, -1); size--;
+    free = push(free, freeCount++, e);
+    // Backward-shift deletion: pull later entries of the probe run into the hole.
+    for (int gap = h, i = (h + 1) & mask; ; i = (i + 1) & mask) {
+      int x = hash.get(i);
+      if (x == 0) { hash.set(gap, 0); return; }
+      int home = slot(a.get(x - 1), b.get(x - 1));
+      if (((i - home) & mask) >= ((i - gap) & mask)) { hash.set(gap, x); gap = i; }
+    }
+  }
+
+  private void grow(int capacity) {
+    int from = a.length();
+    a.reserve(capacity); b.reserve(capacity); uses.reserve(capacity); rest.reserve(capacity);
+    for (int e = from; e < a.length(); e++) a.set(e, -1);
+  }
+
+  private void rehash(int capacity) {
+    hash.free();
+    hash = store.ints(); hash.reserve(Integer.highestOneBit(capacity - 1) << 1);
+    hashed = true;
+    int mask = hash.length() - 1;
+    for (int e = 0; e < ids; e++) if (a.get(e) >= 0) {
+      int h = slot(a.get(e), b.get(e));
+      while (hash.get(h) != 0) h = (h + 1) & mask;
+      hash.set(h, e + 1);
+    }
+  }
+
+  private int slot(int u, int w) {
+    long k = u < w ? (long) u << 32 | w : (long) w << 32 | u;
+    k *= 0x9e3779b97f4a7c15L;
+    return (int) (k >>> 32) & (hash.length() - 1);
+  }
+
+  private static int[] push(int[] stack, int size, int x) {
+    if (size == stack.length) stack = Arrays.copyOf(stack, Math.max(16, 2 * size));
+    stack[size] = x;
+    return stack;
+  }
+
+}
@@ -1,5 +1,13 @@
 package org.chris_martin.delaunay;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 import static java.lang.Math.*;
 import static org.chris_martin.delaunay.Geometry.Side.LEFT;
 import static org.chris_martin.delaunay.Geometry.Side.RIGHT;
@@ -59,8 +67,9 @@ public final class Geometry {
     public int compareTo(Vec o) { return Double.compare(mag(), o.mag()); }
     public Vec add(Vec o) { return new XY(this.x()+o.x(), this.y()+o.y()); }
     public Vec sub(Vec o) { return new XY(this.x()-o.x(), this.y()-o.y()); }
-    public Vec mag(double newMag) { return new Ang(ang(), newMag); }
-    public Vec unit() { return new Ang(ang(), 1); }
+    public Vec mag(double newMag) { double m = mag();
+      return m == 0 ? new XY(newMag, 0) : new XY(x() * newMag / m, y() * newMag / m); }
+    public Vec unit() { return mag(1); }
     public Vec mult(Number factor) { return mult(factor.doubleValue()); }
     public Vec div(Number divisor) { return div(divisor.doubleValue()); }
     public Vec addX(double $) { return xy(x()+$, y()); }
@@ -68,8 +77,9 @@ public final class Geometry {
     public Vec subX(double $) { return xy(x() - $, y()); }
     public Vec subY(double $) { return xy(x(), y() - $); }
     public double dot(Vec o) { return x()*o.x() + y()*o.y(); }
-    public double cross(Vec o) { return dot(o.rot90()); }
-    public Vec rot(double ang) { return new Ang(ang() + ang, mag()); }
+    public double cross(Vec o) { return y()*o.x() - x()*o.y(); }
+    public Vec rot(double ang) { double c = cos(ang), s = sin(ang), x = x(), y = y();
+      return new XY(x * c - y * s, x * s + y * c); }
     public Vec rot(Number ang) { return rot(ang.doubleValue()); }
     public boolean isOrigin() { return false; }
     public String toString() { return String.format("(%f, %f)", x(), y()); }
@@ -81,7 +91,7 @@ public final class Geometry {
     public double x() { return x; }
     public double y() { return y; }
     public double ang() { if (!hasAng) { ang = atan2(y, x); hasAng = true; } return ang; }
-    public double mag() { if (!hasMag) { mag = sqrt(pow(x,2)+pow(y,2)); hasMag = true; } return mag; }
+    public double mag() { if (!hasMag) { mag = sqrt(x*x + y*y); hasMag = true; } return mag; }
     public XY rot180() { return new XY(-1*x, -1*y); }
     public XY rot90() { return new XY(-1 * y, x); }
     public XY mult(double f) { return new XY(f*x, f*y); }
@@ -101,6 +111,9 @@ public final class Geometry {
     public double y() { ensureXy(); return y; }
     public double ang() { return ang; }
     public double mag() { return mag; }
+    public Ang mag(double newMag) { return new Ang(ang, newMag); }
+    public Ang unit() { return new Ang(ang, 1); }
+    public Ang rot(double a) { return new Ang(ang + a, mag); }
     public Ang rot180() { return new Ang(ang+PI, mag); }
     public Ang rot90() { return new Ang(ang+HALFPI, mag); }
     public Ang mult(double f) { return new Ang(ang, f*mag); }
@@ -168,9 +181,10 @@ public final class Geometry {
   }
 
   private static abstract class BaseLine implements Line {
-    public Side side(Vec p) { return p.sub(a()).cross(b().sub(a())) > 0 ? LEFT : RIGHT; }
+    public Side side(Vec p) { return orient2d(a(), b(), p) > 0 ? LEFT : RIGHT; }
     public Line bisect() { return pointAndStep(midpoint(), angleVec(ang()).rot90()); }
-    public double bulge(Vec p) { Circle c = circle(a(), b(), p); return c.radius() * side(p).i * side(c.center()).i; }
+    /** The radius of the circle through a, b, and p; negative when the center is across the line from p. */
+    public double bulge(Vec p) { Vec a = a(), b = b(); return Geometry.bulge(a.x(), a.y(), b.x(), b.y(), p.x(), p.y()); }
   }
 
   private static class OriginLine extends BaseLine {
@@ -230,7 +244,30 @@ public final class Geometry {
     return xy(x, y); }
 
   public static boolean overlap(Line ab, Line cd) { Vec a = ab.a(), b = ab.b(), c = cd.a(), d = cd.b();
-    return ab.side(c) != ab.side(d) && cd.side(a) != cd.side(b); }
+    return overlap(a.x(), a.y(), b.x(), b.y(), c.x(), c.y(), d.x(), d.y()); }
+
+  /*
+   * The same on coordinates, for loops that should not allocate: no Vec or Line is made
+   * and no trigonometry is done.
+   */
+
+  /** The length of (x, y). */
+  public static double mag(double x, double y) { return sqrt(x*x + y*y); }
+
+  /** Whether segment ab crosses segment cd, with points on a line counted as right of it, as by Line.side. */
+  public static boolean overlap(double ax, double ay, double bx, double by, double cx, double cy, double dx, double dy) {
+    return (orient2d(ax, ay, bx, by, cx, cy) > 0) != (orient2d(ax, ay, bx, by, dx, dy) > 0)
+      && (orient2d(cx, cy, dx, dy, ax, ay) > 0) != (orient2d(cx, cy, dx, dy, bx, by) > 0); }
+
+  /** Where the line through a and b meets the line through c and d, as the fraction t of the way from a to b. */
+  public static double crossing(double ax, double ay, double bx, double by, double cx, double cy, double dx, double dy) {
+    return ((cx-ax)*(dy-cy) - (cy-ay)*(dx-cx)) / ((bx-ax)*(dy-cy) - (by-ay)*(dx-cx)); }
+
+  /** Line.bulge of the segment from a to b. */
+  public static double bulge(double ax, double ay, double bx, double by, double px, double py) {
+    double abx = bx-ax, aby = by-ay, bpx = px-bx, bpy = py-by, pax = ax-px, pay = ay-py;
+    double sign = pax*bpx + pay*bpy < 0 ? 1 : -1; // the angle at p is acute
+    return sign * sqrt((abx*abx + aby*aby) * (bpx*bpx + bpy*bpy) * (pax*pax + pay*pay)) / (2 * abs(abx*bpy - aby*bpx)); }
 
   public static interface Circle {
     Vec center();
@@ -274,4 +311,152 @@ public final class Geometry {
     return is;
   }
 
+
+  private static final double EPSILON = pow(2, -53);
+  private static final double ORIENT_BOUND = (3 + 16 * EPSILON) * EPSILON;
+  private static final double IN_CIRCLE_BOUND = (10 + 96 * EPSILON) * EPSILON;
+
+  /**
+   * Positive if a, b, c turn counterclockwise, negative if clockwise, zero if they are
+   * collinear. The sign is always exact: the floating point result is used when an error
+   * bound shows its sign is right, as in Shewchuk's adaptive predicates, and otherwise
+   * the determinant is evaluated exactly, which is rare and the only case that allocates.
+   * If a coordinate is infinite or NaN there is no exact value, and the floating point
+   * result is returned as it is, NaN perhaps.
+   */
+  public static double orient2d(double ax, double ay, double bx, double by, double cx, double cy) {
+    double left = (ax - cx) * (by - cy), right = (ay - cy) * (bx - cx), det = left - right, sum;
+    if (left > 0) { if (right <= 0) return det; sum = left + right; }
+    else if (left < 0) { if (right >= 0) return det; sum = -left - right; }
+    else return det;
+    double bound = ORIENT_BOUND * sum;
+    if (det >= bound || -det >= bound) return det;
+    return exactOrient2d(det, ax, ay, bx, by, cx, cy);
+  }
+
+  public static double orient2d(Vec a, Vec b, Vec c) { return orient2d(a.x(), a.y(), b.x(), b.y(), c.x(), c.y()); }
+
+  /* The exact cases are kept out of line so that the filters stay small enough to inline. */
+  private static double exactOrient2d(double det, double ax, double ay, double bx, double by, double cx, double cy) {
+    if (!(finite(ax) && finite(ay) && finite(bx) && finite(by) && finite(cx) && finite(cy))) return det;
+    BigDecimal acx = exact(ax).subtract(exact(cx)), acy = exact(ay).subtract(exact(cy));
+    BigDecimal bcx = exact(bx).subtract(exact(cx)), bcy = exact(by).subtract(exact(cy));
+    return acx.multiply(bcy).subtract(acy.multiply(bcx)).signum();
+  }
+
+  /**
+   * Positive if d lies inside the circle through a, b, c, which turn counterclockwise;
+   * negative if outside, zero if on it. The sign is exact, as for orient2d, for finite
+   * coordinates.
+   */
+  public static double inCircle(double ax, double ay, double bx, double by, double cx, double cy, double dx, double dy) {
+    double adx = ax - dx, ady = ay - dy, bdx = bx - dx, bdy = by - dy, cdx = cx - dx, cdy = cy - dy;
+    double bdxcdy = bdx * cdy, cdxbdy = cdx * bdy, cdxady = cdx * ady, adxcdy = adx * cdy, adxbdy = adx * bdy, bdxady = bdx * ady;
+    double alift = adx * adx + ady * ady, blift = bdx * bdx + bdy * bdy, clift = cdx * cdx + cdy * cdy;
+    double det = alift * (bdxcdy - cdxbdy) + blift * (cdxady - adxcdy) + clift * (adxbdy - bdxady);
+    double permanent = (abs(bdxcdy) + abs(cdxbdy)) * alift + (abs(cdxady) + abs(adxcdy)) * blift + (abs(adxbdy) + abs(bdxady)) * clift;
+    double bound = IN_CIRCLE_BOUND * permanent;
+    if (det > bound || -det > bound) return det;
+    return exactInCircle(det, ax, ay, bx, by, cx, cy, dx, dy);
+  }
+
+  public static double inCircle(Vec a, Vec b, Vec c, Vec d) {
+    return inCircle(a.x(), a.y(), b.x(), b.y(), c.x(), c.y(), d.x(), d.y()); }
+
+  private static double exactInCircle(double det, double ax, double ay, double bx, double by, double cx, double cy,
+      double dx, double dy) {
+    if (!(finite(ax) && finite(ay) && finite(bx) && finite(by) && finite(cx) && finite(cy) && finite(dx) && finite(dy)))
+      return det;
+    BigDecimal eadx = exact(ax).subtract(exact(dx)), eady = exact(ay).subtract(exact(dy));
+    BigDecimal ebdx = exact(bx).subtract(exact(dx)), ebdy = exact(by).subtract(exact(dy));
+    BigDecimal ecdx = exact(cx).subtract(exact(dx)), ecdy = exact(cy).subtract(exact(dy));
+    BigDecimal ealift = eadx.multiply(eadx).add(eady.multiply(eady));
+    BigDecimal eblift = ebdx.multiply(ebdx).add(ebdy.multiply(ebdy));
+    BigDecimal eclift = ecdx.multiply(ecdx).add(ecdy.multiply(ecdy));
+    return ealift.multiply(ebdx.multiply(ecdy).subtract(ecdx.multiply(ebdy)))
+      .add(eblift.multiply(ecdx.multiply(eady).subtract(eadx.multiply(ecdy))))
+      .add(eclift.multiply(eadx.multiply(ebdy).subtract(ebdx.multiply(eady)))).signum();
+  }
+
+  private static BigDecimal exact(double x) { return new BigDecimal(x); }
+
+  private static boolean finite(double x) { return abs(x) <= Double.MAX_VALUE; }
+
+  /**
+   * The convex hull by Andrew's monotone chain: its corners in counterclockwise order,
+   * starting from the least x (then y). Points on an edge are left out. Only orientation
+   * tests are used, no angles. O(n log n), for the sort.
+   */
+  public static List<Vec> convexHull(Collection<? extends Vec> points) { return convexHull(points, null); }
+
+  /** Same as convexHull(points), with the sort and the hulls of separate strips run on the given pool. */
+  public static List<Vec> convexHull(Collection<? extends Vec> points, ForkJoinPool pool) {
+    List<Vec> vs = new ArrayList<Vec>(points);
+    double[] x = new double[vs.size()], y = new double[vs.size()];
+    for (int i = 0; i < x.length; i++) { x[i] = vs.get(i).x(); y[i] = vs.get(i).y(); }
+    List<Vec> hull = new ArrayList<Vec>();
+    for (int i : convexHull(x, y, pool)) hull.add(vs.get(i));
+    return hull;
+  }
+
+  /** Indices of the hull's corners among the points (x[i], y[i]), as in convexHull(points). */
+  static int[] convexHull(final double[] x, final double[] y, ForkJoinPool pool) {
+    final int[] a = new int[x.length];
+    for (int i = 0; i < a.length; i++) a[i] = i;
+    Triangulation.sort(a, x, y, pool);
+    int[] extremes = a;
+    if (pool != null && a.length > Triangulation.PARALLEL_CUTOFF) {
+      /* The corners of a strip's hull, in sorted order. Strips are disjoint in sorted
+       * order, so joining two of them is a concatenation followed by one more pass. */
+      class Strip extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1;
+        final int lo, hi; Strip(int lo, int hi) { this.lo = lo; this.hi = hi; }
+        protected int[] compute() {
+          if (hi - lo <= Triangulation.PARALLEL_CUTOFF) return extremes(a, lo, hi, x, y);
+          int mid = (lo + hi) >>> 1;
+          Strip right = new Strip(mid, hi);
+          right.fork();
+          int[] l = new Strip(lo, mid).compute(), r = right.join();
+          int[] both = Arrays.copyOf(l, l.length + r.length);
+          System.arraycopy(r, 0, both, l.length, r.length);
+          return extremes(both, 0, both.length, x, y);
+        }
+      }
+      extremes = pool.invoke(new Strip(0, a.length));
+    }
+    int[] lower = chain(extremes, 0, extremes.length, x, y, 1), upper = chain(extremes, 0, extremes.length, x, y, -1);
+    int n = lower.length + Math.max(upper.length - 2, 0);
+    int[] hull = Arrays.copyOf(lower, n);
+    for (int i = upper.length - 2, k = lower.length; i > 0; i--) hull[k++] = upper[i];
+    return hull;
+  }
+
+  /**
+   * The lower (turn 1) or upper (turn -1) hull of the sorted points a[lo..hi), from left
+   * to right. Coincident points are kept once.
+   */
+  private static int[] chain(int[] a, int lo, int hi, double[] x, double[] y, int turn) {
+    int[] h = new int[hi - lo]; int k = 0;
+    for (int i = lo; i < hi; i++) {
+      int p = a[i];
+      if (k > 0 && x[h[k-1]] == x[p] && y[h[k-1]] == y[p]) continue;
+      while (k >= 2 && turn * orient2d(x[h[k-2]], y[h[k-2]], x[h[k-1]], y[h[k-1]], x[p], y[p]) <= 0) k--;
+      h[k++] = p;
+    }
+    return Arrays.copyOf(h, k);
+  }
+
+  /** The corners of the hull of the sorted points a[lo..hi), in sorted order. */
+  private static int[] extremes(int[] a, int lo, int hi, double[] x, double[] y) {
+    int[] lower = chain(a, lo, hi, x, y, 1), upper = chain(a, lo, hi, x, y, -1);
+    int[] both = new int[lower.length + upper.length]; int i = 0, j = 0, k = 0;
+    while (i < lower.length || j < upper.length) {
+      if (j == upper.length || (i < lower.length && Triangulation.compare(lower[i], upper[j], x, y) <= 0)) {
+        if (j < upper.length && lower[i] == upper[j]) j++;
+        both[k++] = lower[i++];
+      } else both[k++] = upper[j++];
+    }
+    return Arrays.copyOf(both, k);
+  }
+
 }
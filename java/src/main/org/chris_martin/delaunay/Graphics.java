@@ -2,7 +2,6 @@ package org.chris_martin.delaunay;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.awt.geom.Ellipse2D;
 import java.awt.geom.Path2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
@@ -11,22 +10,31 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import javax.imageio.ImageIO;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.Timer;
 
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Ordering;
-import com.google.common.io.ByteStreams;
 import org.chris_martin.delaunay.Geometry.Line;
 import org.chris_martin.delaunay.Geometry.Vec;
 import org.chris_martin.delaunay.Mesh.*;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newConcurrentMap;
 import static java.util.Arrays.asList;
 import static javax.swing.WindowConstants.EXIT_ON_CLOSE;
 import static org.chris_martin.delaunay.Geometry.*;
@@ -46,18 +54,37 @@ public class Graphics {
   int fps = 30, physicsPerSecond = 30;
 
   Dimension screenSize = new Dimension(800, 600);
-  Mesh mesh;
-  Random random = new Random();
   JFrame frame;
   JPanel panel;
-  PainterList<Vertex> vertexPainter;
-  PainterList<Edge> edgePainter;
-  PainterList<Triangle> trianglePainter, triangleOutlinePainter;
-  Corner marker;
   Mousing mousing = new Mousing();
 
+  /*
+   * The mesh is touched only on the simulation thread, which runs physics at its own rate
+   * and the changes input asks for in between, publishing a snapshot after each. Painting
+   * reads the latest snapshot, so a slow physics step never holds up a frame.
+   */
+  final ScheduledExecutorService simulation = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable r) { Thread t = new Thread(r, "simulation"); t.setDaemon(true); return t; }});
+  volatile Mesh mesh;
+  Random random = new Random();
+  Corner marker;
+  volatile int markedVertex, markedTriangle; // ids of the marker's vertex and triangle, or 0
+  final ConcurrentMap<Integer, Long> flashStarts = newConcurrentMap(); // by edge id
+
+  /* Totals reported by each mesh and by painting, as JFR events too where the JVM has jdk.jfr; 'm' shows them. */
+  final Metrics.Counters metrics = Metrics.counters();
+
+  /* On the simulation thread: whether each mesh flips edges after cuts, as 'f' toggles. */
+  boolean flipAfterCut;
+
+  /* On the event dispatch thread: the snapshot being painted, and the marker's ids as of it. */
+  Snapshot shown;
+  int shownVertex, shownTriangle;
+  Scene scene = new Scene();
+  PainterComponent comp;
+
   Info info = new Info();
-  boolean showInfo = true;
+  volatile boolean showInfo = true;
 
   enum DisplayMode {
     PRETTY, DEBUG;
@@ -76,53 +103,359 @@ public class Graphics {
     panel = new JPanel(layout);
     panel.addMouseListener(mousing); panel.addMouseMotionListener(mousing);
     frame.add(panel);
-    restart();
+    comp = new PainterComponent(scene, info);
+    comp.setPreferredSize(screenSize);
+    panel.add(comp);
+    frame.pack();
+    frame.setVisible(true);
+    frame.setResizable(false);
+    simulate(new Runnable() { public void run() { restart(); }});
 
     new Timer(1000/fps, new ActionListener() { public void actionPerformed(ActionEvent e) {
-      frame.repaint();
+      long start = System.nanoTime();
+      List<Rectangle> dirty = scene.update();
+      if (!dirty.isEmpty()) metrics.painted(dirty.size(), System.nanoTime() - start);
+      for (Rectangle r : dirty) comp.repaint(r);
     }}).start();
 
     final double physicsTimeStep = 1000./physicsPerSecond;
-    new Timer((int) physicsTimeStep, new ActionListener() { public void actionPerformed(ActionEvent e) {
-      if (mesh != null && !showInfo) mesh.physics(physicsTimeStep);
-    }}).start();
+    final Runnable step = published(new Runnable() { public void run() { mesh.physics(physicsTimeStep); }});
+    simulation.scheduleAtFixedRate(new Runnable() { public void run() {
+      if (!showInfo) step.run();
+    }}, 0, (long) (1000 * physicsTimeStep), TimeUnit.MICROSECONDS);
   }
 
+  /** Runs the task on the simulation thread, after those already given to it, unless the simulation has stopped. */
+  void simulate(Runnable task) { if (!simulation.isShutdown()) simulation.execute(published(task)); }
+
+  /**
+   * The task followed by publishing the mesh. Anything it throws, errors included, may have
+   * left the mesh half changed, so it stops the simulation and is handed to the thread's
+   * uncaught exception handler and shown on the event dispatch thread. It is not thrown on,
+   * since the executor would only keep it in a future no one reads.
+   */
+  Runnable published(final Runnable task) { return new Runnable() { public void run() {
+    try { task.run(); mesh.publish(); }
+    catch (final Throwable e) {
+      simulation.shutdownNow();
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      EventQueue.invokeLater(new Runnable() { public void run() {
+        JOptionPane.showMessageDialog(frame, "The simulation stopped: " + e, frame.getTitle(), JOptionPane.ERROR_MESSAGE);
+      }});
+    }
+  }}; }
+
   void quit() {
     WindowEvent wev = new WindowEvent(frame, WindowEvent.WINDOW_CLOSING);
     Toolkit.getDefaultToolkit().getSystemEventQueue().postEvent(wev);
   }
 
+  /** On the simulation thread. */
   void restart() {
-    mesh = new Mesh(initialPoints());
-    rebuildPainters();
+    Mesh m = new Mesh();
+    m.setMetrics(metrics);
+    m.setFlipAfterCut(flipAfterCut);
+    m.setPoints(initialPoints());
+    m.publish();
+    mesh = m;
+    mark(null);
   }
 
-  void rebuildPainters() {
+  /** On the simulation thread: moves the marker and tells the painters. */
+  void mark(Corner c) {
+    marker = c;
+    markedVertex = c == null ? 0 : c.vertex().id(); markedTriangle = c == null ? 0 : c.triangle().id();
+  }
 
-    vertexPainter = painterList();
-    if (displayMode == DisplayMode.DEBUG)
-      for (Mesh.Vertex v : mesh.vertices()) vertexPainter.add(new Vertex(v));
+  /*
+   * The scene is kept drawn in an image between frames. Each frame compares the latest snapshot
+   * with the one drawn there, draws again just the regions where triangles moved, appeared or
+   * went away, or where the marker changed or an edge is flashing, and repaints only those
+   * regions of the screen. Finding them and picking out what reaches into them are one pass
+   * each over the snapshot, so that part of a frame still grows with the mesh; the drawing,
+   * which is what costs the most, follows what changed.
+   */
+  class Scene implements Painter {
+    BufferedImage layer;
+    Snapshot painted; // the snapshot drawn in the layer, or null to draw it all again
+    final Background background = new Background();
+    final Dirt dirt = new Dirt();
+
+    /*
+     * By their numbers in the painted snapshot, each triangle's color; and by triangle id and
+     * by edge id, the triangle's or edge's number there, or -1.
+     */
+    byte[] shades = {};
+    int[] triangleIndex = {}, edgeIndex = {};
+    final Random shading = new Random();
+
+    /* Paths reused from frame to frame, one for each style, which hold everything drawn in it. */
+    final Path2D.Double[] trianglePaths = new Path2D.Double[triangleColors.length];
+    final Path2D.Double edgePath = new Path2D.Double(), vertexPath = new Path2D.Double(), markerPath = new Path2D.Double();
+    int[] drawnVertices = {}; // the numbers of the vertices drawVertices picked out, reused from frame to frame
+    { for (int k = 0; k < trianglePaths.length; k++) trianglePaths[k] = new Path2D.Double(); }
 
-    edgePainter = painterList();
-    if (displayMode == DisplayMode.DEBUG)
-      for (Mesh.Edge e : mesh.edges()) edgePainter.add(new Edge(e));
+    public void paint(Graphics2D g) {
+      if (layer != null) g.drawImage(layer, 0, 0, null);
+    }
 
-    trianglePainter = painterList(); triangleOutlinePainter = painterList();
-    for (Mesh.Triangle t : mesh.triangles()) {
-      trianglePainter.add(new Triangle(t, false));
-      triangleOutlinePainter.add(new Triangle(t, true));
+    /** On the event dispatch thread: brings the layer up to the latest snapshot, returning the regions drawn again. */
+    List<Rectangle> update() {
+      dirt.clear(displayMode == DisplayMode.DEBUG ? vertex_size + 3 : 2);
+      Mesh m = mesh;
+      Snapshot s = m == null ? null : m.published();
+      if (s == null) return dirt.regions;
+      int mv = markedVertex, mt = markedTriangle;
+      if (layer == null || painted == null) {
+        if (layer == null) layer = comp.getGraphicsConfiguration().createCompatibleImage(screenSize.width, screenSize.height);
+        dirt.all(screenSize);
+      } else if (s != painted) {
+        dirtyTriangles(painted, s);
+      }
+      if (mv != shownVertex || mt != shownTriangle) {
+        dirtyMarker(painted, shownVertex, shownTriangle);
+        dirtyMarker(s, mv, mt);
+      }
+      Snapshot before = painted;
+      shown = s; shownVertex = mv; shownTriangle = mt;
+      if (!s.sameTopology(before)) updateShades();
+      painted = s;
+      if (displayMode == DisplayMode.DEBUG) dirtyFlashes();
+      if (!dirt.regions.isEmpty()) draw();
+      return dirt.regions;
     }
 
-    final PainterComponent comp = new PainterComponent(
-      new Background(), triangleOutlinePainter, trianglePainter, edgePainter, vertexPainter, info);
-    comp.setPreferredSize(screenSize);
+    /** Dirties where a triangle of either snapshot is not in the other with its corners where they were. */
+    void dirtyTriangles(Snapshot a, Snapshot b) {
+      boolean same = b.sameTopology(a);
+      boolean[] kept = same ? null : new boolean[a.triangles()];
+      for (int t = 0; t < b.triangles(); t++) {
+        int id = b.triangleId(t), o = same ? t : id < triangleIndex.length ? triangleIndex[id] : -1;
+        if (o >= 0 && !same) kept[o] = true;
+        if (o >= 0 && sameCorners(a, o, b, t)) continue;
+        if (o >= 0) dirtyTriangle(a, o);
+        dirtyTriangle(b, t);
+      }
+      if (!same) for (int t = 0; t < kept.length; t++) if (!kept[t]) dirtyTriangle(a, t);
+    }
 
-    panel.removeAll();
-    panel.add(comp);
-    frame.pack();
-    frame.setVisible(true);
-    frame.setResizable(false);
+    boolean sameCorners(Snapshot a, int s, Snapshot b, int t) {
+      for (int k = 0; k < 3; k++) {
+        int p = a.corner(s, k), q = b.corner(t, k);
+        if (a.x(p) != b.x(q) || a.y(p) != b.y(q)) return false;
+      }
+      return true;
+    }
+
+    void dirtyTriangle(Snapshot s, int t) {
+      int a = s.corner(t, 0), b = s.corner(t, 1), c = s.corner(t, 2);
+      dirt.add(min(s.x(a), s.x(b), s.x(c)), min(s.y(a), s.y(b), s.y(c)),
+        max(s.x(a), s.x(b), s.x(c)), max(s.y(a), s.y(b), s.y(c)));
+    }
+
+    void dirtyMarker(Snapshot s, int vertexId, int triangleId) {
+      if (s == null) return;
+      if (vertexId != 0) for (int v = 0; v < s.vertices(); v++)
+        if (s.vertexId(v) == vertexId) dirt.add(s.x(v), s.y(v), s.x(v), s.y(v));
+      if (triangleId != 0) for (int t = 0; t < s.triangles(); t++)
+        if (s.triangleId(t) == triangleId) dirtyTriangle(s, t);
+    }
+
+    /** Dirties the edges still flashing, and forgets flashes of edges that have gone and would have ended. */
+    void dirtyFlashes() {
+      long now = new Date().getTime();
+      for (Map.Entry<Integer, Long> flash : flashStarts.entrySet()) {
+        int id = flash.getKey();
+        int e = id < edgeIndex.length ? edgeIndex[id] : -1;
+        if (e >= 0) {
+          int a = shown.a(e), b = shown.b(e);
+          dirt.add(Math.min(shown.x(a), shown.x(b)), Math.min(shown.y(a), shown.y(b)),
+            Math.max(shown.x(a), shown.x(b)), Math.max(shown.y(a), shown.y(b)));
+        } else if (now - flash.getValue() > 1000) {
+          flashStarts.remove(id, flash.getValue());
+        }
+      }
+    }
+
+    /** Gives each triangle of the shown snapshot its color, and numbers its triangles and edges by id. */
+    void updateShades() {
+      shades = new byte[shown.triangles()];
+      for (int t = 0; t < shades.length; t++) {
+        if (displayMode == DisplayMode.DEBUG) { shades[t] = (byte) debugShade; continue; }
+        shading.setSeed(shown.triangleId(t));
+        shading.nextDouble();
+        shades[t] = (byte) (shading.nextDouble() * prettyShades);
+      }
+      int ids = 0;
+      for (int t = 0; t < shown.triangles(); t++) ids = Math.max(ids, shown.triangleId(t) + 1);
+      triangleIndex = new int[ids];
+      Arrays.fill(triangleIndex, -1);
+      for (int t = 0; t < shown.triangles(); t++) triangleIndex[shown.triangleId(t)] = t;
+      ids = 0;
+      for (int e = 0; e < shown.edges(); e++) ids = Math.max(ids, shown.edgeId(e) + 1);
+      edgeIndex = new int[ids];
+      Arrays.fill(edgeIndex, -1);
+      for (int e = 0; e < shown.edges(); e++) edgeIndex[shown.edgeId(e)] = e;
+    }
+
+    /**
+     * Draws the dirty regions of the layer again, clipped to all of them at once. The triangles,
+     * edges and vertices reaching into any region are added to the paths of their styles in one
+     * pass, and each path is then drawn in one call.
+     */
+    void draw() {
+      Graphics2D g = layer.createGraphics();
+      try {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setClip(dirt.shape());
+        background.paint(g);
+        drawTriangles(g);
+        if (displayMode == DisplayMode.DEBUG) { drawEdges(g); drawVertices(g); }
+      } finally {
+        g.dispose();
+      }
+    }
+
+    /** Outlines every triangle in its color and then fills them, which closes the antialiased seams between neighbors. */
+    void drawTriangles(Graphics2D g) {
+      for (Path2D.Double path : trianglePaths) path.reset();
+      for (int t = 0; t < shades.length; t++) {
+        int a = shown.corner(t, 0), b = shown.corner(t, 1), c = shown.corner(t, 2);
+        double ax = shown.x(a), ay = shown.y(a), bx = shown.x(b), by = shown.y(b), cx = shown.x(c), cy = shown.y(c);
+        if (!dirt.reaches(min(ax, bx, cx), min(ay, by, cy), max(ax, bx, cx), max(ay, by, cy), 2)) continue;
+        Path2D.Double path = trianglePaths[shown.triangleId(t) == shownTriangle ? markerShade : shades[t]];
+        // Every triangle winds the same way, so one folded over another still fills under the nonzero rule.
+        path.moveTo(ax, ay);
+        if ((bx - ax) * (cy - ay) - (by - ay) * (cx - ax) >= 0) { path.lineTo(bx, by); path.lineTo(cx, cy); }
+        else { path.lineTo(cx, cy); path.lineTo(bx, by); }
+        path.closePath();
+      }
+      g.setStroke(triangle_stroke);
+      for (int k = 0; k < trianglePaths.length; k++)
+        if (trianglePaths[k].getCurrentPoint() != null) { g.setColor(triangleColors[k]); g.draw(trianglePaths[k]); }
+      for (int k = 0; k < trianglePaths.length; k++)
+        if (trianglePaths[k].getCurrentPoint() != null) { g.setColor(triangleColors[k]); g.fill(trianglePaths[k]); }
+    }
+
+    /** Draws the edges that aren't flashing in one path, then those that are in their own colors. */
+    void drawEdges(Graphics2D g) {
+      edgePath.reset();
+      long now = new Date().getTime();
+      for (int e = 0; e < shown.edges(); e++) {
+        int a = shown.a(e), b = shown.b(e);
+        double ax = shown.x(a), ay = shown.y(a), bx = shown.x(b), by = shown.y(b);
+        if (dirt.reaches(Math.min(ax, bx), Math.min(ay, by), Math.max(ax, bx), Math.max(ay, by), 2)
+            && !flashStarts.containsKey(shown.edgeId(e))) { edgePath.moveTo(ax, ay); edgePath.lineTo(bx, by); }
+      }
+      g.setStroke(edge_stroke);
+      g.setColor(strokeColor); g.draw(edgePath);
+      for (int id : flashStarts.keySet()) {
+        int e = id < edgeIndex.length ? edgeIndex[id] : -1;
+        if (e < 0) continue;
+        int a = shown.a(e), b = shown.b(e);
+        g.setColor(transition(strokeColor, flashColor, flash(id, now)));
+        g.draw(new Line2D.Double(shown.x(a), shown.y(a), shown.x(b), shown.y(b)));
+      }
+    }
+
+    /** How far through its flash the edge is, from 1 as it starts to 0 when it has none; forgets flashes that are over. */
+    double flash(int edgeId, long now) {
+      Long flashStart = flashStarts.get(edgeId);
+      if (flashStart != null) {
+        long d = now - flashStart;
+        if (d > 1000) flashStarts.remove(edgeId, flashStart); else return (1000-d)/1000.;
+      }
+      return 0;
+    }
+
+    /**
+     * Draws the vertices as circles, all filled in one call and outlined in another, then labels
+     * them; those reaching into the regions are picked out once for both.
+     */
+    void drawVertices(Graphics2D g) {
+      vertexPath.reset(); markerPath.reset();
+      if (drawnVertices.length < shown.vertices()) drawnVertices = new int[shown.vertices()];
+      int n = 0;
+      for (int v = 0; v < shown.vertices(); v++) {
+        double x = shown.x(v), y = shown.y(v);
+        if (!dirt.reaches(x, y, x, y, vertex_size + 3)) continue;
+        drawnVertices[n++] = v;
+        circle(shown.vertexId(v) == shownVertex ? markerPath : vertexPath, x, y);
+      }
+      g.setColor(foregroundColor); g.fill(vertexPath);
+      g.setColor(markerColor); g.fill(markerPath);
+      vertexPath.append(markerPath, false);
+      g.setColor(strokeColor); g.setStroke(vertex_stroke); g.draw(vertexPath);
+      FontMetrics metrics = g.getFontMetrics();
+      for (int i = 0; i < n; i++) {
+        int v = drawnVertices[i];
+        double x = shown.x(v), y = shown.y(v);
+        String label = Integer.toString(shown.vertexId(v));
+        Rectangle2D labelRect = metrics.getStringBounds(label, g);
+        g.drawString(label, (int) (x - labelRect.getWidth()/2), (int) (y + labelRect.getHeight()/2));
+      }
+    }
+  }
+
+  /**
+   * Regions of the screen to draw again, each an integer rectangle grown by the padding that
+   * strokes and vertex markers need. Overlapping regions are merged, and they all become one
+   * once there are more than a handful.
+   */
+  static class Dirt {
+    static final int maxRegions = 16;
+    final List<Rectangle> regions = newArrayList();
+    int pad;
+
+    void clear(int pad) { regions.clear(); this.pad = pad; }
+
+    void all(Dimension size) { regions.clear(); regions.add(new Rectangle(size)); }
+
+    /** Whether the box from (minX, minY) to (maxX, maxY), grown by pad, reaches into any of the regions. */
+    boolean reaches(double minX, double minY, double maxX, double maxY, int pad) {
+      for (Rectangle r : regions) if (Graphics.reaches(r, minX, minY, maxX, maxY, pad)) return true;
+      return false;
+    }
+
+    /** All the regions as one shape, to clip to. */
+    Shape shape() {
+      Path2D.Double shape = new Path2D.Double();
+      for (Rectangle r : regions) shape.append(r, false);
+      return shape;
+    }
+
+    void add(double minX, double minY, double maxX, double maxY) {
+      if (!(minX <= maxX && minY <= maxY)) return; // a coordinate is NaN
+      int x0 = (int) Math.max(Integer.MIN_VALUE / 2, Math.floor(minX) - pad);
+      int y0 = (int) Math.max(Integer.MIN_VALUE / 2, Math.floor(minY) - pad);
+      int x1 = (int) Math.min(Integer.MAX_VALUE / 2, Math.ceil(maxX) + pad);
+      int y1 = (int) Math.min(Integer.MAX_VALUE / 2, Math.ceil(maxY) + pad);
+      for (Rectangle q : regions)
+        if (q.x <= x0 && q.y <= y0 && q.x + q.width >= x1 && q.y + q.height >= y1) return;
+      Rectangle r = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+      for (boolean merged = true; merged; ) {
+        merged = false;
+        for (Iterator<Rectangle> i = regions.iterator(); i.hasNext(); ) {
+          Rectangle q = i.next();
+          if (q.intersects(r)) { r = r.union(q); i.remove(); merged = true; }
+        }
+      }
+      regions.add(r);
+      if (regions.size() > maxRegions) {
+        Rectangle all = regions.get(0);
+        for (Rectangle q : regions) all = all.union(q);
+        regions.clear(); regions.add(all);
+      }
+    }
+  }
+
+  static double min(double a, double b, double c) { return Math.min(a, Math.min(b, c)); }
+  static double max(double a, double b, double c) { return Math.max(a, Math.max(b, c)); }
+
+  /** Whether the box from (minX, minY) to (maxX, maxY), grown by pad, reaches into r. */
+  static boolean reaches(Rectangle r, double minX, double minY, double maxX, double maxY, int pad) {
+    return maxX + pad >= r.x && minX - pad <= r.x + r.width && maxY + pad >= r.y && minY - pad <= r.y + r.height;
   }
 
   class Mousing extends MouseAdapter {
@@ -130,17 +463,18 @@ public class Graphics {
 
     public void mouseMoved(MouseEvent e) {
       if (displayMode == DisplayMode.DEBUG) {
-        Line motion = motion(e);
-        if (motion != null) for (Edge edge : edgePainter.painters) if (Geometry.overlap(motion, edge.line())) edge.flash();
+        final Line motion = motion(e);
+        if (motion != null) simulate(new Runnable() { public void run() {
+          for (Mesh.Edge crossed : mesh.edgesCrossing(motion)) flashStarts.put(crossed.id(), new Date().getTime()); }});
       }
     }
 
     public void mouseDragged(MouseEvent event) {
-      Line m;
+      final Line m;
       switch (mouseMode) {
         case SELECT: select(xy(event)); break;
-        case DELETE: m = motion(event); if (m != null) { mesh.remove(m); rebuildPainters(); } break;
-        case CUT: m = motion(event); if (m != null) { mesh.cut(m); rebuildPainters(); } break;
+        case DELETE: m = motion(event); if (m != null) simulate(new Runnable() { public void run() { mesh.remove(m); }}); break;
+        case CUT: m = motion(event); if (m != null) simulate(new Runnable() { public void run() { mesh.cut(m); }}); break;
       }
     }
 
@@ -150,20 +484,20 @@ public class Graphics {
       final Vec p = xy(event);
       switch (mouseMode) {
         case SELECT: select(p); break;
-        case DELETE: Mesh.Triangle t = findTriangle(p); if (t != null) { mesh.remove(t); rebuildPainters(); } break;
+        case DELETE: simulate(new Runnable() { public void run() {
+          Mesh.Triangle t = findTriangle(p); if (t != null) mesh.remove(t); }}); break;
       }
     }
     public void mouseReleased(MouseEvent e) {
-      mesh.stopCutting();
+      simulate(new Runnable() { public void run() { mesh.stopCutting(); }});
       a = null;
     }
-    void select(final Vec p) {
+    void select(final Vec p) { simulate(new Runnable() { public void run() {
       Mesh.Triangle t = findTriangle(p);
-      marker = t == null ? null : Ordering.natural().onResultOf(new Function<Corner, Double>() {
-        public Double apply(Corner c) { return p.sub(c.vertex().loc()).mag(); }}).min(t.corners());
-    }
-    Mesh.Triangle findTriangle(Vec p) {
-      for (Mesh.Triangle t : mesh.triangles()) if (t.contains(p)) return t; return null; }
+      mark(t == null ? null : Ordering.natural().onResultOf(new Function<Corner, Double>() {
+        public Double apply(Corner c) { return p.sub(c.vertex().loc()).mag(); }}).min(t.corners()));
+    }}); }
+    Mesh.Triangle findTriangle(Vec p) { return mesh.locate(p); }
   }
 
   public enum MouseMode { SELECT, DELETE, CUT }
@@ -172,24 +506,28 @@ public class Graphics {
   class Keying extends KeyAdapter {
     public void keyPressed(KeyEvent e) {
       char C = e.getKeyChar();
-      char c = Character.toLowerCase(C);
-      boolean upper = C != c;
-      if (marker != null) {
-        switch (c) {
-          case 's': marker = markerSwing(marker.swing().next(), upper); break;
-          case 'u': marker = markerSwing(marker.swing().prev(), upper); break;
-          case 'n': marker = marker.next(); break;
-          case 'p': marker = marker.prev(); break;
+      final char c = Character.toLowerCase(C);
+      final boolean upper = C != c;
+      simulate(new Runnable() { public void run() {
+        if (marker != null) {
+          switch (c) {
+            case 's': mark(markerSwing(marker.swing().next(), upper)); break;
+            case 'u': mark(markerSwing(marker.swing().prev(), upper)); break;
+            case 'n': mark(marker.next()); break;
+            case 'p': mark(marker.prev()); break;
+          }
         }
-      }
+        if (c == 'r') restart();
+        if (c == 'f') mesh.setFlipAfterCut(flipAfterCut = !flipAfterCut);
+      }});
       switch (c) {
-        case 'r': restart(); break;
         case '1': mouseMode = MouseMode.SELECT; break;
         case '2': mouseMode = MouseMode.DELETE; break;
         case '3': mouseMode = MouseMode.CUT; break;
         case 'q': quit(); break;
-        case 'd': displayMode = displayMode.next(); rebuildPainters(); break;
-        case ' ': showInfo = !showInfo; break;
+        case 'd': displayMode = displayMode.next(); scene.painted = null; break;
+        case 'm': info.metrics = metrics.toString().split(",\\s*(?![^(]*\\))|\\r?\\n"); showInfo = true; comp.repaint(); break;
+        case ' ': showInfo = !showInfo; info.metrics = null; comp.repaint(); break;
       }
     }
     Corner markerSwing(Swing swing, boolean allowSuper) {
@@ -237,72 +575,39 @@ public class Graphics {
 
   private static final int vertex_size = 15;
   private static final Stroke vertex_stroke = new BasicStroke(2);
-  class Vertex implements Painter {
-    private final Mesh.Vertex meshVertex; Vertex(Mesh.Vertex meshVertex) { this.meshVertex = meshVertex; }
-    public void paint(Graphics2D g) {
-      Vec loc = meshVertex.loc();
-      Shape s = new Ellipse2D.Double(loc.x() - vertex_size, loc.y() - vertex_size, 2 * vertex_size, 2 * vertex_size);
-      g.setPaint(marker!=null&&marker.vertex()==meshVertex ? markerColor : foregroundColor); g.fill(s);
-      g.setPaint(strokeColor); g.setStroke(vertex_stroke); g.draw(s);
-      String label = Integer.toString(meshVertex.id());
-      Rectangle2D labelRect = g.getFontMetrics().getStringBounds(label, g);
-      g.drawString(label, (int) (loc.x() - labelRect.getWidth()/2), (int) (loc.y() + labelRect.getHeight()/2));
-    }
-  }
-
-  static class Edge implements Painter {
-    private static final Stroke stroke = new BasicStroke(2);
-    private static final Color flashColor = new Color(255, 0, 255);
-    private final Mesh.Edge meshEdge; Edge(Mesh.Edge meshEdge) { this.meshEdge = meshEdge; }
-    public void paint(Graphics2D g) {
-      Vec a = meshEdge.a().loc(), b = meshEdge.b().loc();
-      g.setStroke(stroke); g.setColor(transition(strokeColor, flashColor, getFlash()));
-      g.draw(new Line2D.Double(a.x(), a.y(), b.x(), b.y()));
-    }
-    Line line() { return meshEdge.line(); }
-    Long flashStart;
-    void flash() { flashStart = new Date().getTime(); }
-    double getFlash() {
-      if (flashStart != null) {
-        long d = new Date().getTime() - flashStart;
-        if (d > 1000) flashStart = null; else return (1000-d)/1000.;
-      }
-      return 0; }
+  private static final Stroke edge_stroke = new BasicStroke(2);
+  private static final Color flashColor = new Color(255, 0, 255);
+  private static final Stroke triangle_stroke = new BasicStroke(1.2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+
+  /*
+   * Triangle colors by shade: the pretty mode's darkenings of the foreground in even steps,
+   * then the debug mode's single color and the marker's. A triangle's shade follows its id.
+   */
+  private static final int prettyShades = 16, debugShade = prettyShades, markerShade = prettyShades + 1;
+  private static final Color[] triangleColors = new Color[prettyShades + 2];
+  static {
+    for (int k = 0; k < prettyShades; k++)
+      triangleColors[k] = transition(foregroundColor, Color.black, 0.3 + (k + 0.5) / prettyShades * 0.25);
+    triangleColors[debugShade] = foregroundColor;
+    triangleColors[markerShade] = markerColor;
   }
 
-  class Triangle implements Painter {
-    private final Mesh.Triangle t;
-    private final Color color;
-    private final boolean outline;
-    Triangle(Mesh.Triangle t, boolean outline) {
-      this.t = t;
-      this.outline = outline;
-      Random r = new Random(t.id());
-      r.nextDouble();
-      color = displayMode == DisplayMode.DEBUG ? foregroundColor
-        : transition(foregroundColor, Color.black, 0.3 + r.nextDouble() * 0.25);
-    }
-    public void paint(Graphics2D g) {
-      Vec a = t.a().vertex().loc(), b = t.b().vertex().loc(), c = t.c().vertex().loc();
-      g.setColor(marker!=null&&marker.triangle()==t ? markerColor : color);
-      Path2D.Double path = new Path2D.Double();
-      path.moveTo(a.x(), a.y()); path.lineTo(b.x(), b.y()); path.lineTo(c.x(), c.y());
-      if (outline) {
-        Stroke s = new BasicStroke(1.2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
-        g.setStroke(s);
-        path.closePath();
-        g.draw(path);
-      } else {
-        g.fill(path);
-      }
-    }
+  /** Adds a circle of the vertex size around (x, y) to the path, as four Bézier arcs. */
+  static void circle(Path2D.Double path, double x, double y) {
+    double r = vertex_size, k = 0.5522847498 * vertex_size;
+    path.moveTo(x + r, y);
+    path.curveTo(x + r, y + k, x + k, y + r, x, y + r);
+    path.curveTo(x - k, y + r, x - r, y + k, x - r, y);
+    path.curveTo(x - r, y - k, x - k, y - r, x, y - r);
+    path.curveTo(x + k, y - r, x + r, y - k, x + r, y);
+    path.closePath();
   }
 
   class Background implements Painter {
     public void paint(Graphics2D g) {
       Rectangle rect = g.getClipBounds();
       g.setColor(displayMode == DisplayMode.PRETTY ? Color.black : new Color(150, 170, 200));
-      g.fillRect(0, 0, rect.width, rect.height);
+      g.fillRect(rect.x, rect.y, rect.width, rect.height);
     }
   }
 
@@ -313,27 +618,44 @@ public class Graphics {
       a.getBlue() + (int) (t * (b.getBlue() - a.getBlue()))
     ); }
 
+  /**
+   * The help screen, which never changes, so it's drawn once into an image and copied from
+   * there; or in its place, the counts and timings as of the last 'm'.
+   */
   class Info implements Painter {
     final Image chris;
     {
       try {
-        chris = Toolkit.getDefaultToolkit().createImage(
-          ByteStreams.toByteArray(Info.class.getResourceAsStream("chris.jpg")));
+        chris = ImageIO.read(Info.class.getResource("chris.jpg"));
       } catch (IOException e) {
         throw Throwables.propagate(e);
       }
     }
+    BufferedImage image;
     final Color bgColor = new Color(250, 250, 250);
     final Font nameFont = new Font("SansSerif", Font.BOLD, 20);
     final Font emailFont = new Font("Monospaced", Font.PLAIN, 18);
     final Font instructionFont = new Font("SansSerif", Font.PLAIN, 18);
+    /* On the event dispatch thread: the lines of metrics to show instead of the help, or null. */
+    String[] metrics;
     public void paint(Graphics2D g) {
       if (!showInfo) return;
-      int pad = 20;
-      Shape rect = new RoundRectangle2D.Double(pad, pad,
-        screenSize.width-2*pad, screenSize.height-2*pad,
-        10, 10);
-      g.setColor(bgColor); g.fill(rect);
+      if (metrics != null) { drawMetrics(g); return; }
+      if (image == null) {
+        image = g.getDeviceConfiguration().createCompatibleImage(
+          screenSize.width, screenSize.height, Transparency.TRANSLUCENT);
+        Graphics2D ig = image.createGraphics();
+        try {
+          ig.setRenderingHints(g.getRenderingHints());
+          draw(ig);
+        } finally {
+          ig.dispose();
+        }
+      }
+      g.drawImage(image, 0, 0, null);
+    }
+    void draw(Graphics2D g) {
+      drawBackground(g);
       g.drawImage(chris, 580, 50, null);
       g.setColor(Color.black);
       g.setFont(nameFont); g.drawString("Christopher Martin", 300, 100);
@@ -345,6 +667,8 @@ public class Graphics {
         "", "Space bar - Show/hide this help screen",
         "r - Reset the simulation",
         "d - Switch between pretty/debug display modes",
+        "m - Show counts and timings",
+        "f - Turn edge flips after cutting on/off",
         "3 - Change mouse drag effect to \"cutting\"",
         "2 - Change mouse drag effect to \"triangle removal\"",
         "",
@@ -362,6 +686,25 @@ public class Graphics {
         y += 20;
       }
     }
+    void drawMetrics(Graphics2D g) {
+      drawBackground(g);
+      g.setColor(Color.black);
+      g.setFont(nameFont); g.drawString("Counts and timings", 40, 80);
+      g.setFont(instructionFont);
+      int y = 120;
+      for (String s : metrics) {
+        g.drawString(s, 40, y);
+        y += 20;
+      }
+      g.drawString("Space bar - Hide", 40, y + 20);
+    }
+    void drawBackground(Graphics2D g) {
+      int pad = 20;
+      Shape rect = new RoundRectangle2D.Double(pad, pad,
+        screenSize.width-2*pad, screenSize.height-2*pad,
+        10, 10);
+      g.setColor(bgColor); g.fill(rect);
+    }
   }
 
 }
@@ -1,35 +1,47 @@
 package org.chris_martin.delaunay;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.*;
+import com.google.common.primitives.Ints;
 import org.chris_martin.delaunay.Geometry.Line;
-import org.chris_martin.delaunay.Geometry.Side;
 import org.chris_martin.delaunay.Geometry.Vec;
 
 import static com.google.common.collect.Sets.newHashSet;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Arrays.asList;
-import static java.util.Collections.min;
 import static java.util.Collections.unmodifiableCollection;
 import static org.chris_martin.delaunay.Geometry.*;
 import static org.testng.collections.Lists.newArrayList;
-import static org.testng.collections.Maps.newHashMap;
 
-public final class Mesh {
+public final class Mesh implements AutoCloseable {
 
   private int previousVertexId, previousTriangleId;
 
@@ -39,78 +51,885 @@ public final class Mesh {
   List<Vertex> vertices = newArrayList();
   public Collection<Vertex> vertices() { return unmodifiableCollection(vertices); }
 
-  private LoadingCache<Edge, Double> springLength = CacheBuilder.newBuilder().build(
-    new CacheLoader<Edge, Double>() { public Double load(Edge edge) {
-      return edge.a.loc.sub(edge.b.loc).mag(); }});
+  /**
+   * Where the corner table, the vertex positions and velocities and the edge table are
+   * kept. Either way the Triangle and Vertex handles, the lists of them and the slot tables
+   * stay on the heap, so OFF_HEAP takes only the bulk numbers off it: heap use still grows
+   * with the mesh, by about two fifths as much as with HEAP.
+   */
+  public enum Storage { HEAP, OFF_HEAP }
+  private final Storage storage;
 
-  public Mesh() {}
-  public Mesh(Collection<VertexConfig> points) { setPoints(points); }
+  /*
+   * The corner table. Triangle slot t owns corners 3t, 3t+1 and 3t+2 in counterclockwise
+   * order. For each corner the store holds the slot of its vertex, the corners its vertex
+   * swings to next and previous, and whether the swing to the next is super. Slots of
+   * removed triangles and vertices are reused, so those of live ones never move, and
+   * Corner, Swings and Swing are views made on demand.
+   */
+  private MeshStore store;
+  private Triangle[] triangleAt = new Triangle[0];
+  private Vertex[] vertexAt = new Vertex[0];
+  private int[] freeTriangles = new int[0], freeVertices = new int[0];
+  private int triangleSlots, vertexSlots, freeTriangleCount, freeVertexCount;
+
+  /* The edges, with their ids and the rest lengths of their springs, kept by addTriangle and removeTriangle. */
+  private EdgeTable edgeTable;
+
+  /* Where the hot paths report what they did; nothing is kept unless metrics are set. */
+  private Metrics metrics = Metrics.NONE;
+  public Metrics metrics() { return metrics; }
+  public void setMetrics(Metrics metrics) { this.metrics = metrics == null ? Metrics.NONE : metrics; }
+
+  private static int next(int c) { return c % 3 == 2 ? c - 2 : c + 1; }
+  private static int prev(int c) { return c % 3 == 0 ? c + 2 : c - 1; }
+  private Vertex vertex(int c) { return vertexAt[store.vertexOf(c)]; }
+  private Triangle triangle(int c) { return triangleAt[c / 3]; }
+  private Vec loc(int c) { int v = store.vertexOf(c); return xy(store.x(v), store.y(v)); }
+  private double x(int c) { return store.x(store.vertexOf(c)); }
+  private double y(int c) { return store.y(store.vertexOf(c)); }
+  private boolean superPrev(int c) { return store.superNext(store.swingPrev(c)); }
+
+  /** The corners of v in swing order, starting from v.corner. */
+  private int[] ring(Vertex v) {
+    int n = 0, c = v.corner;
+    do { n++; c = store.swingNext(c); } while (c != v.corner);
+    int[] ring = new int[n];
+    for (int i = 0; i < n; i++) { ring[i] = c; c = store.swingNext(c); }
+    return ring;
+  }
+
+  private int newTriangleSlot(Triangle t) {
+    int slot;
+    if (freeTriangleCount > 0) slot = freeTriangles[--freeTriangleCount];
+    else {
+      slot = triangleSlots++;
+      if (slot == triangleAt.length) {
+        int capacity = Math.max(16, 2 * slot);
+        triangleAt = Arrays.copyOf(triangleAt, capacity);
+        store.reserve(capacity, vertexAt.length);
+      }
+    }
+    triangleAt[slot] = t;
+    return slot;
+  }
+
+  private int newVertexSlot(Vertex v) {
+    int slot;
+    if (freeVertexCount > 0) slot = freeVertices[--freeVertexCount];
+    else {
+      slot = vertexSlots++;
+      if (slot == vertexAt.length) {
+        vertexAt = Arrays.copyOf(vertexAt, Math.max(16, 2 * slot));
+        store.reserve(triangleAt.length, vertexAt.length);
+      }
+    }
+    vertexAt[slot] = v;
+    return slot;
+  }
+
+  private static int[] push(int[] stack, int size, int x) {
+    if (size == stack.length) stack = Arrays.copyOf(stack, Math.max(16, 2 * size));
+    stack[size] = x;
+    return stack;
+  }
+
+  public Mesh() { this(Storage.HEAP); }
+  public Mesh(Collection<VertexConfig> points) { this(); setPoints(points); }
+
+  /** Triangulates spatial partitions of the points in parallel on the given pool. */
+  public Mesh(Collection<VertexConfig> points, ForkJoinPool pool) { this(); setPoints(points, pool); }
+
+  /**
+   * An empty mesh keeping its bulk state as given. An OFF_HEAP mesh grows direct buffers
+   * instead of arrays for the corner table, vertex state and edges, so those are neither
+   * copied nor traced by the collector, though its handles still are; call close() when
+   * done with it to free the buffers.
+   */
+  public Mesh(Storage storage) { this.storage = storage; store = newStore(); edgeTable = new EdgeTable(store); }
+
+  private MeshStore newStore() { return storage == Storage.OFF_HEAP ? MeshStore.offHeap() : MeshStore.heap(); }
+
+  /** Frees the mesh's storage at once, rather than when it is collected. The mesh is left empty. */
+  public void close() {
+    store.free(); edgeTable.free();
+    store = newStore();
+    triangles = newArrayList(); vertices = newArrayList();
+    triangleAt = new Triangle[0]; vertexAt = new Vertex[0];
+    triangleSlots = vertexSlots = freeTriangleCount = freeVertexCount = 0;
+    lastCutVertex = null; lastLocated = null; seeds = null; edgeCells = null; unflipped = newArrayList();
+    edgeTable = new EdgeTable(store); topology++;
+  }
 
   private static final double GRAVITY = 0.04;
-  private static final double SPRING = .05;
-  private static final double INERTIA = 12;
-  private static final double DAMPING = .001;
+  static final double SPRING = .05;
+  static final double INERTIA = 12;
+  static final double DAMPING = .001;
 
   private boolean meshIsValid() {
     for (Vertex v : vertices) {
-      assert v.corner.vertex == v;
+      assert vertex(v.corner) == v;
       Lists.<Corner>newArrayList(v.corners());
     }
     for (Triangle t : triangles) {
-      for (Corner c : t.corners()) {
-        assert vertices.contains(c.vertex);
+      for (int c = 3 * t.slot; c < 3 * t.slot + 3; c++) {
+        assert exists(vertex(c));
       }
     }
     return true;
   }
 
-  public void setPoints(Collection<VertexConfig> points) {
-    Delaunay d = new Delaunay(points);
-    triangles = d.triangles;
-    vertices = d.vertices;
+  public void setPoints(Collection<VertexConfig> points) { setPoints(points, null); }
+
+  public void setPoints(Collection<VertexConfig> points, ForkJoinPool pool) {
+    long start = System.nanoTime();
+    triangulate(points, pool);
+    metrics.triangulated(points.size(), System.nanoTime() - start);
     lastCutVertex = null;
+    unflipped = newArrayList();
+    lastLocated = null;
+    seeds = null;
+    edgeCells = null;
   }
 
-  public Collection<Edge> edges() {
-    Set<Edge> edges = newHashSet();
-    for (Triangle t : triangles) edges.addAll(t.edges());
-    return edges;
+  /** A view of the edge table; iterating it makes each Edge handle as it is reached. */
+  public Collection<Edge> edges() { return edges; }
+
+  private final Collection<Edge> edges = new AbstractCollection<Edge>() {
+    public int size() { return edgeTable.size(); }
+    public Iterator<Edge> iterator() { return new Iterator<Edge>() {
+      int e = skip(0);
+      int skip(int e) { while (e < edgeTable.ids() && !edgeTable.live(e)) e++; return e; }
+      public boolean hasNext() { return e < edgeTable.ids(); }
+      public Edge next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Edge edge = new Edge(e); e = skip(e + 1);
+        return edge;
+      }
+      public void remove() { throw new UnsupportedOperationException(); }
+    }; }
+  };
+
+  private Edge edge(int c) { return new Edge(edgeTable.of(c)); }
+
+  private Triangle lastLocated;
+  private final Random random = new Random(0); // seeded, so that the same calls give the same mesh
+
+  /**
+   * Adds a point inside the mesh: the triangle containing it (or the two sharing the edge
+   * it lies on) is split, and the Delaunay property is restored by flipping edges around
+   * the new vertex. Boundaries (super swings) are never flipped. A point that coincides
+   * with an existing vertex returns that vertex and changes nothing.
+   *
+   * @throws IllegalArgumentException if the point is not inside any triangle
+   */
+  public Vertex insert(VertexConfig config) {
+    Vec p = config.loc;
+    Triangle t = locate(p);
+    if (t == null) throw new IllegalArgumentException("Point is outside the mesh: " + p);
+    int base = 3 * t.slot;
+    for (int c = base; c < base + 3; c++) if (loc(c).x() == p.x() && loc(c).y() == p.y()) return vertex(c);
+    Vertex v = new Vertex(config);
+    addVertex(v);
+    int facing = -1;
+    for (int c = base; c < base + 3; c++) if (orient2d(loc(next(c)), loc(prev(c)), p) == 0) facing = c;
+    legalize(v, facing < 0 ? splitTriangle(t, v) : splitEdge(facing, v));
+    edgeTable.collect();
+    lastLocated = triangle(v.corner);
+    assert meshIsValid();
+    return v;
   }
 
-  public void physics(double timeStep) {
-    for (Vertex v : vertices) {
-      v.nextVelocity = v.velocity;
-    }
-    Collections.shuffle(vertices);
-    for (int i = 0; i < 20; i++) {
-      for (Vertex v : vertices) {
-        if (v.physics == VertexPhysics.FREE) {
-          Vec accel = xy(0, GRAVITY);
-          List<Vertex> adjs = newArrayList();
-          for (Corner c : v.corners()) adjs.add(c.next().vertex());
-          Collections.shuffle(adjs);
-          for (Vertex adj : adjs) {
-            double desiredLength = springLength.getUnchecked(new Edge(v, adj));
-            double actualLength = adj.nextPosition(timeStep).sub(v.nextPosition(timeStep)).mag();
-            double stretch = actualLength - desiredLength;
-            accel = accel.add(adj.loc.sub(v.loc).mag(stretch * SPRING));
-          }
-          v.nextVelocity = v.velocity.mult(INERTIA-1).add(accel).div(INERTIA);
-          v.nextVelocity = v.nextVelocity.mag(Math.max(0, v.nextVelocity.mag() - DAMPING));
+  /** Inserts many points, visiting them in a serpentine order over a grid so that each walk is short. */
+  public List<Vertex> insert(Collection<VertexConfig> configs) {
+    List<VertexConfig> ordered = newArrayList(configs);
+    if (ordered.isEmpty()) return newArrayList();
+    double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+    for (VertexConfig c : ordered) { minY = Math.min(minY, c.loc.y()); maxY = Math.max(maxY, c.loc.y()); }
+    final double top = minY, rowHeight = Math.max((maxY - minY) / Math.max(1, Math.sqrt(ordered.size() / 4.)), Double.MIN_VALUE);
+    Collections.sort(ordered, new Comparator<VertexConfig>() {
+      public int compare(VertexConfig i, VertexConfig j) {
+        int ri = row(i), rj = row(j);
+        if (ri != rj) return ri < rj ? -1 : 1;
+        return ri % 2 == 0 ? Double.compare(i.loc.x(), j.loc.x()) : Double.compare(j.loc.x(), i.loc.x()); }
+      int row(VertexConfig c) { return (int) ((c.loc.y() - top) / rowHeight); }
+    });
+    List<Vertex> vs = newArrayList();
+    for (VertexConfig c : ordered) vs.add(insert(c));
+    return vs;
+  }
+
+  /** Lawson flips outward from v until every edge facing v is locally Delaunay. */
+  private void legalize(Vertex v, List<Triangle> fan) {
+    Deque<Triangle> stack = new ArrayDeque<Triangle>(fan);
+    while (!stack.isEmpty()) {
+      Triangle t = stack.pop();
+      if (!exists(t)) continue;
+      int p = cornerOf(t, v), b = next(p);
+      if (superPrev(b) || store.superNext(prev(p))) continue;
+      int n = store.swingPrev(b);
+      if (inCircle(v.loc(), loc(b), loc(prev(p)), loc(next(n))) <= 0) continue;
+      for (Triangle f : flipEdge(p)) stack.push(f);
+    }
+  }
+
+  /*
+   * Local rewiring for insert and flips. The caller knows how the new triangles line up
+   * with the old ones, so each vertex's run of old corners, in swing order, is swapped for
+   * its run of new corners, keeping the swings into and out of the run and their super
+   * flags, with no maps or angles as retriangulate needs. A run is saved as the corner
+   * swinging into it (-1 if the run was the vertex's whole ring), the corner it swings out
+   * to, and the two super flags.
+   */
+
+  private void saveRun(int first, int last, int[] runs, int k) {
+    int before = store.swingPrev(first), after = store.swingNext(last);
+    boolean whole = after == first;
+    runs[4 * k] = whole ? -1 : before; runs[4 * k + 1] = after;
+    runs[4 * k + 2] = !whole && store.superNext(before) ? 1 : 0; runs[4 * k + 3] = store.superNext(last) ? 1 : 0;
+  }
+
+  /** Swings into first and out of last as the saved run did; the swings inside the new run are the caller's. */
+  private void restoreRun(int[] runs, int k, int first, int last) {
+    if (runs[4 * k] < 0) { setSwing(last, first, runs[4 * k + 3] == 1); return; }
+    setSwing(runs[4 * k], first, runs[4 * k + 2] == 1);
+    setSwing(last, runs[4 * k + 1], runs[4 * k + 3] == 1);
+  }
+
+  /** Replaces t by the three triangles joining its edges to v, which lies inside it. */
+  private List<Triangle> splitTriangle(Triangle t, Vertex v) {
+    int base = 3 * t.slot;
+    int[] runs = new int[12];
+    Vertex[] xs = new Vertex[3];
+    for (int k = 0; k < 3; k++) { saveRun(base + k, base + k, runs, k); xs[k] = vertex(base + k); }
+    removeTriangle(t);
+    List<Triangle> fan = newArrayList(3);
+    for (int k = 0; k < 3; k++) { Triangle f = new Triangle(xs[k], xs[(k + 1) % 3], v); addTriangle(f); fan.add(f); }
+    for (int k = 0; k < 3; k++) {
+      int first = 3 * fan.get(k).slot, last = 3 * fan.get((k + 2) % 3).slot + 1;
+      setSwing(first, last, false); restoreRun(runs, k, first, last); xs[k].corner = first;
+      setSwing(first + 2, 3 * fan.get((k + 1) % 3).slot + 2, false);
+    }
+    v.corner = 3 * fan.get(0).slot + 2;
+    metrics.trianglesCreated(3);
+    return fan;
+  }
+
+  /**
+   * Splits the edge facing corner facing at v, which lies on it: its triangle becomes two,
+   * and so does the triangle across it unless the edge is on the boundary.
+   */
+  private List<Triangle> splitEdge(int facing, Vertex v) {
+    int ac = next(facing), bc = prev(facing);
+    boolean inner = !superPrev(ac);
+    int across = inner ? store.swingPrev(ac) : -1;
+    Vertex a = vertex(ac), b = vertex(bc), c = vertex(facing), d = inner ? vertex(next(across)) : null;
+    int[] runs = new int[16];
+    saveRun(facing, facing, runs, 0);
+    saveRun(inner ? across : ac, ac, runs, 1);
+    saveRun(bc, inner ? prev(across) : bc, runs, 2);
+    if (inner) saveRun(next(across), next(across), runs, 3);
+    Triangle t = triangle(facing);
+    if (inner) removeTriangle(triangle(across));
+    removeTriangle(t);
+    List<Triangle> fan = newArrayList(4);
+    fan.add(new Triangle(a, v, c)); fan.add(new Triangle(v, b, c));
+    if (inner) { fan.add(new Triangle(b, v, d)); fan.add(new Triangle(v, a, d)); }
+    for (Triangle f : fan) addTriangle(f);
+    int a1 = 3 * fan.get(0).slot, v1 = a1 + 1, c1 = a1 + 2, v2 = 3 * fan.get(1).slot, b2 = v2 + 1, c2 = v2 + 2;
+    setSwing(c1, c2, false); restoreRun(runs, 0, c1, c2); c.corner = c1;
+    if (inner) {
+      int b3 = 3 * fan.get(2).slot, v3 = b3 + 1, d3 = b3 + 2, v4 = 3 * fan.get(3).slot, a4 = v4 + 1, d4 = v4 + 2;
+      setSwing(a4, a1, false); restoreRun(runs, 1, a4, a1); a.corner = a4;
+      setSwing(b2, b3, false); restoreRun(runs, 2, b2, b3); b.corner = b2;
+      setSwing(d3, d4, false); restoreRun(runs, 3, d3, d4); d.corner = d3;
+      setSwing(v1, v4, false); setSwing(v4, v3, false); setSwing(v3, v2, false); setSwing(v2, v1, false);
+    } else {
+      restoreRun(runs, 1, a1, a1); a.corner = a1;
+      restoreRun(runs, 2, b2, b2); b.corner = b2;
+      setSwing(v2, v1, false); setSwing(v1, v2, true);
+    }
+    v.corner = v1;
+    metrics.trianglesCreated(fan.size());
+    return fan;
+  }
+
+  /**
+   * Replaces the triangle of corner p and the one across the edge facing p, which must not
+   * be a boundary, by the two triangles on the other diagonal, and returns them.
+   */
+  private List<Triangle> flipEdge(int p) {
+    int b = next(p), q = prev(p), n = store.swingPrev(b), m = prev(n), d = next(n);
+    assert store.swingNext(q) == m;
+    Vertex va = vertex(p), vb = vertex(b), vc = vertex(q), vd = vertex(d);
+    int[] runs = new int[16];
+    saveRun(p, p, runs, 0); saveRun(n, b, runs, 1); saveRun(q, m, runs, 2); saveRun(d, d, runs, 3);
+    Triangle t = triangle(p);
+    removeTriangle(triangle(n)); removeTriangle(t);
+    Triangle t1 = new Triangle(va, vb, vd), t2 = new Triangle(va, vd, vc);
+    addTriangle(t1); addTriangle(t2);
+    int a1 = 3 * t1.slot, b1 = a1 + 1, d1 = a1 + 2, a2 = 3 * t2.slot, d2 = a2 + 1, c2 = a2 + 2;
+    setSwing(a1, a2, false); restoreRun(runs, 0, a1, a2); va.corner = a1;
+    restoreRun(runs, 1, b1, b1); vb.corner = b1;
+    restoreRun(runs, 2, c2, c2); vc.corner = c2;
+    setSwing(d2, d1, false); restoreRun(runs, 3, d2, d1); vd.corner = d2;
+    edgeTable.collect();
+    metrics.trianglesCreated(2);
+    return asList(t1, t2);
+  }
+
+  /* Seeds for locate: the last triangle found in each cell of a grid over the mesh. */
+  private Triangle[] seeds;
+  private double gridX, gridY, cellSize;
+  private int gridColumns, gridRows;
+
+  /**
+   * The triangle containing p, boundary included, or null if p is outside the mesh.
+   *
+   * Jump and walk: the walk starts from whichever triangle is nearest p among the last
+   * one found in p's cell of a coarse grid, the last one found anywhere, and, if the cell
+   * has no seed, a sample of about the cube root of their number. It then crosses edges
+   * toward p, choosing among the edges facing p at random so that it cannot cycle. Where
+   * the only edges facing p are boundary, as along a slit, the walk follows the boundary,
+   * going around the far end of each edge to the next, until it reaches one that does not
+   * face p, and heads for p again from there. Seeds are only hints, checked before use, so
+   * the index stays valid however the mesh changes. Only if walks come back to a boundary
+   * edge they have already gone around, as they do when p is outside the mesh, are all
+   * triangles checked.
+   */
+  public Triangle locate(Vec p) {
+    if (triangles.isEmpty()) return null;
+    if (seeds == null) grid();
+    int cell = cell(p);
+    Triangle best = null; double nearest = Double.MAX_VALUE;
+    int samples = seeds[cell] != null && exists(seeds[cell]) ? 0 : (int) Math.cbrt(triangles.size());
+    for (int i = -2; i < samples; i++) {
+      Triangle t = i == -2 ? seeds[cell] : i == -1 ? lastLocated : triangles.get(random.nextInt(triangles.size()));
+      if (t == null || !exists(t)) continue;
+      Vec a = loc(3 * t.slot);
+      double dx = a.x() - p.x(), dy = a.y() - p.y(), d = dx * dx + dy * dy;
+      if (d < nearest) { nearest = d; best = t; }
+    }
+    for (int attempt = 0; attempt < 3 && best != null; attempt++) {
+      Triangle t = walk(best, p);
+      if (t != null) return seeds[cell] = lastLocated = t;
+      best = triangles.get(random.nextInt(triangles.size()));
+    }
+    for (Triangle u : triangles) {
+      Vec a = loc(3 * u.slot), b = loc(3 * u.slot + 1), c = loc(3 * u.slot + 2);
+      if (orient2d(a, b, p) >= 0 && orient2d(b, c, p) >= 0 && orient2d(c, a, p) >= 0) return seeds[cell] = lastLocated = u;
+    }
+    return null;
+  }
+
+  /** Walks from t toward p; null if the walk comes back to a boundary edge it went around. */
+  private Triangle walk(Triangle t, Vec p) {
+    Set<Integer> walls = null;
+    walking: for (int steps = 0; steps <= triangles.size(); steps++) {
+      int r = random.nextInt(3), wall = -1;
+      for (int k = 0; k < 3; k++) {
+        int c = 3 * t.slot + (r + k) % 3;
+        if (orient2d(x(c), y(c), x(next(c)), y(next(c)), p.x(), p.y()) < 0) {
+          if (superPrev(c)) { wall = c; continue; }
+          t = triangle(store.swingPrev(c));
+          continue walking;
         }
       }
+      if (wall < 0) return t;
+      if (walls == null) walls = newHashSet();
+      // The super swing at the wall's far end leads around that vertex to the next boundary
+      // edge; follow the boundary that way while its edges still face p.
+      do {
+        if (!walls.add(wall)) return null;
+        wall = store.swingNext(next(wall));
+      } while (orient2d(x(wall), y(wall), x(next(wall)), y(next(wall)), p.x(), p.y()) < 0);
+      t = triangle(wall);
     }
+    return null;
+  }
+
+  /** Lays a grid over the vertices with about four triangles to a cell, seeded from the vertices in each. */
+  private void grid() {
+    double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
     for (Vertex v : vertices) {
-      v.loc = v.nextPosition(timeStep);
-      v.velocity = v.nextVelocity;
-      v.nextVelocity = null;
+      minX = Math.min(minX, v.loc().x()); maxX = Math.max(maxX, v.loc().x());
+      minY = Math.min(minY, v.loc().y()); maxY = Math.max(maxY, v.loc().y());
+    }
+    double area = Math.max((maxX - minX) * (maxY - minY), Double.MIN_VALUE);
+    cellSize = Math.max(Math.sqrt(4 * area / triangles.size()), Double.MIN_VALUE);
+    gridX = minX; gridY = minY;
+    gridColumns = Math.min(1 + (int) ((maxX - minX) / cellSize), 1 << 12);
+    gridRows = Math.min(1 + (int) ((maxY - minY) / cellSize), 1 << 12);
+    seeds = new Triangle[gridColumns * gridRows];
+    for (Vertex v : vertices) seeds[cell(v.loc())] = triangle(v.corner);
+  }
+
+  /** The grid cell holding p, or the nearest one if p is off the grid. */
+  private int cell(Vec p) {
+    int i = (int) Math.max(0, Math.min(gridColumns - 1, (p.x() - gridX) / cellSize));
+    int j = (int) Math.max(0, Math.min(gridRows - 1, (p.y() - gridY) / cellSize));
+    return j * gridColumns + i;
+  }
+
+  private static Vertex[] tri(Vertex a, Vertex b, Vertex c) { return new Vertex[]{ a, b, c }; }
+
+  /**
+   * A stretch of one vertex's corners in swing order: either a run of corners inside a
+   * retriangulated region, which is replaced, or the corners between two such runs.
+   */
+  private class Piece {
+    final boolean replaced; final int first, last;
+    // the neighbors at its ends, kept because a replaced piece's corners are reused
+    final Vertex startNeighbor, endNeighbor;
+    boolean superBefore, superAfter; // the old swings into and out of the piece
+    boolean closed; // a replaced piece that was the vertex's whole fan, without a super swing
+    List<int[]> chains = newArrayList(); // the new corners filling a replaced piece
+    Piece(boolean replaced, int first, int last) {
+      this.replaced = replaced; this.first = first; this.last = last;
+      startNeighbor = vertex(next(first)); endNeighbor = vertex(prev(last)); }
+  }
+
+  /** Cuts the swing order around v into pieces at the borders of the region. */
+  private List<Piece> pieces(Vertex v, Set<Triangle> region) {
+    int[] ring = ring(v);
+    int n = ring.length, start = -1;
+    for (int i = 0; i < n && start < 0; i++) if (border(ring[(i + n - 1) % n], ring[i], region)) start = i;
+    List<Piece> pieces = newArrayList();
+    if (start < 0) {
+      Piece whole = new Piece(true, ring[0], ring[n - 1]);
+      whole.closed = true;
+      pieces.add(whole);
+      return pieces;
+    }
+    int first = start;
+    for (int k = 1; k <= n; k++) {
+      int i = (start + k) % n;
+      if (k < n && !border(ring[(i + n - 1) % n], ring[i], region)) continue;
+      int f = ring[first], l = ring[(i + n - 1) % n];
+      Piece piece = new Piece(region.contains(triangle(f)), f, l);
+      piece.superBefore = superPrev(f); piece.superAfter = store.superNext(l);
+      pieces.add(piece);
+      first = i;
+    }
+    return pieces;
+  }
+
+  private boolean border(int prev, int next, Set<Triangle> region) {
+    boolean a = region.contains(triangle(prev)), b = region.contains(triangle(next));
+    return a != b || (a && store.superNext(prev));
+  }
+
+  /**
+   * Replaces triangles by a triangulation of the same region, or of part of it, given as
+   * counterclockwise vertex triples, and relinks the swings of every vertex involved.
+   * Swings that leave the region keep their targets and super flags; swings inside it
+   * are ordinary. Where the new triangles leave part of the region uncovered, the edges
+   * they expose become boundary: swings across them are super, and a vertex left with
+   * more than one boundary gap is split by ensureManifold. Vertices left without any
+   * corner are removed.
+   */
+  private List<Triangle> retriangulate(Collection<Triangle> old, List<Vertex[]> replacement) {
+    Set<Triangle> region = newHashSet(old);
+    Map<Vertex, List<Piece>> pieces = Maps.newHashMap();
+    for (Triangle t : old) for (int c = 3 * t.slot; c < 3 * t.slot + 3; c++)
+      if (!pieces.containsKey(vertex(c))) pieces.put(vertex(c), pieces(vertex(c), region));
+    for (Triangle t : old) removeTriangle(t);
+    List<Triangle> added = newArrayList();
+    ListMultimap<Vertex, Integer> corners = ArrayListMultimap.create();
+    for (Vertex[] vs : replacement) {
+      Triangle t = new Triangle(vs[0], vs[1], vs[2]);
+      addTriangle(t); added.add(t);
+      for (int k = 0; k < 3; k++) corners.put(vs[k], 3 * t.slot + k);
+    }
+    metrics.trianglesCreated(added.size());
+    List<Vertex> exposed = newArrayList();
+    for (Vertex v : newArrayList(Sets.union(pieces.keySet(), corners.keySet()))) {
+      List<Piece> ps = pieces.get(v);
+      List<Integer> cs = corners.get(v);
+      if (ps == null) {
+        Piece fresh = new Piece(true, cs.get(0), cs.get(0));
+        fresh.closed = true;
+        ps = newArrayList(fresh);
+      }
+      if (!cs.isEmpty()) fill(v, ps, chains(cs));
+      List<int[]> sequence = newArrayList();
+      List<Piece> owners = newArrayList();
+      for (Piece p : ps) {
+        if (!p.replaced) { sequence.add(new int[]{ p.first, p.last }); owners.add(p); }
+        else for (int[] chain : p.chains) { sequence.add(new int[]{ chain[0], chain[chain.length - 1] }); owners.add(p); }
+      }
+      if (sequence.isEmpty()) { v.corner = -1; if (exists(v)) dropVertex(v); continue; }
+      boolean anySuper = false;
+      for (int i = 0; i < sequence.size(); i++) {
+        int j = (i + 1) % sequence.size();
+        int[] a = sequence.get(i), b = sequence.get(j);
+        Piece pa = owners.get(i), pb = owners.get(j);
+        boolean isSuper;
+        if (!pa.replaced && !pb.replaced) isSuper = true;
+        else if (!pa.replaced) isSuper = pb.superBefore || vertex(next(b[0])) != pb.startNeighbor;
+        else if (!pb.replaced) isSuper = pa.superAfter || vertex(prev(a[1])) != pa.endNeighbor;
+        else isSuper = !(i == j && pa.closed && vertex(prev(a[1])) == vertex(next(b[0])));
+        setSwing(a[1], b[0], isSuper);
+        anySuper |= isSuper;
+      }
+      v.corner = sequence.get(0)[0];
+      if (anySuper) exposed.add(v);
+    }
+    for (Vertex v : exposed) if (v.corner >= 0) ensureManifold(v);
+    edgeTable.collect();
+    return added;
+  }
+
+  /** Links each run of corners and hands it to the replaced piece whose sector it lies in. */
+  private void fill(Vertex v, List<Piece> ps, List<int[]> chains) {
+    for (int[] chain : chains) for (int k = 1; k < chain.length; k++) setSwing(chain[k - 1], chain[k], false);
+    List<Piece> replaced = newArrayList();
+    for (Piece p : ps) if (p.replaced) replaced.add(p);
+    for (int[] chain : chains) {
+      Piece best = replaced.get(0); double overshoot = Double.MAX_VALUE;
+      if (replaced.size() > 1) for (Piece p : replaced) {
+        double o = offset(v, p.startNeighbor, vertex(next(chain[0]))) - offset(v, p.startNeighbor, p.endNeighbor);
+        if (o < overshoot) { overshoot = o; best = p; }
+        if (o <= 0) break;
+      }
+      best.chains.add(chain);
+    }
+    for (final Piece p : replaced) if (p.chains.size() > 1) {
+      final Vertex from = p.closed ? vertex(next(p.chains.get(0)[0])) : p.startNeighbor;
+      Collections.sort(p.chains, new Comparator<int[]>() {
+        public int compare(int[] i, int[] j) { return Double.compare(key(i), key(j)); }
+        double key(int[] chain) { return offset(vertex(chain[0]), from, vertex(next(chain[0]))); }
+      });
+    }
+  }
+
+  /** The counterclockwise angle around v from the direction of a to that of b, in [0, 2 pi). */
+  private static double offset(Vertex v, Vertex a, Vertex b) {
+    double d = b.loc().sub(v.loc()).ang() - a.loc().sub(v.loc()).ang();
+    return d < 0 ? d + 2 * Math.PI : d;
+  }
+
+  /** Splits corners of one vertex into maximal runs linked by shared edges. A cycle is the only run. */
+  private List<int[]> chains(List<Integer> cs) {
+    List<int[]> chains = newArrayList();
+    for (int c : cs) {
+      if (predecessor(c, cs) >= 0) continue;
+      List<Integer> chain = newArrayList(); chain.add(c);
+      for (int s = successor(c, cs); s >= 0; s = successor(s, cs)) chain.add(s);
+      chains.add(Ints.toArray(chain));
+    }
+    if (chains.isEmpty()) {
+      int first = cs.get(0);
+      List<Integer> cycle = newArrayList(); cycle.add(first);
+      for (int s = successor(first, cs); s != first; s = successor(s, cs)) cycle.add(s);
+      chains.add(Ints.toArray(cycle));
+    }
+    return chains;
+  }
+
+  /*
+   * Edge index: each triangle is filed under every cell of an unbounded hash grid that its
+   * bounding box touches, so the edges crossing a segment are among the triangles filed
+   * along it. Built on first use and kept current by addTriangle and removeTriangle. Physics
+   * only marks it moved, and the next query refiles what has moved since, so steps with no
+   * query in between pay nothing for it. A triangle physics has stretched over more than MAX_CELLS cells, or flung off to an
+   * unrepresentable coordinate, is kept aside in edgeOutliers and looked at by every query.
+   */
+  private Map<Long, List<Triangle>> edgeCells;
+  private Set<Triangle> edgeOutliers;
+  private double edgeCellSize;
+  private boolean edgesMoved;
+  private static final double MAX_CELLS = 64;
+
+  /**
+   * The edges that overlap the segment, each once, found by visiting only the grid cells
+   * the segment passes through.
+   */
+  public List<Edge> edgesCrossing(Line segment) {
+    List<Edge> crossing = newArrayList();
+    if (triangles.isEmpty()) return crossing;
+    if (edgeCells == null) indexEdges();
+    else if (edgesMoved) for (Triangle t : triangles) refile(t);
+    edgesMoved = false;
+    Vec a = segment.a(), b = segment.b();
+    double sx = a.x(), sy = a.y(), tx = b.x(), ty = b.y();
+    if (a.x() > b.x()) { Vec swap = a; a = b; b = swap; }
+    double s = edgeCellSize, pad = 1e-9 * s, slope = (b.y() - a.y()) / (b.x() - a.x());
+    Set<Edge> seen = newHashSet();
+    for (long i = (long) Math.floor(a.x() / s), last = (long) Math.floor(b.x() / s); i <= last; i++) {
+      double x0 = Math.max(a.x(), i * s), x1 = Math.min(b.x(), (i + 1) * s);
+      double y0 = a.x() == b.x() ? a.y() : a.y() + (x0 - a.x()) * slope;
+      double y1 = a.x() == b.x() ? b.y() : a.y() + (x1 - a.x()) * slope;
+      long j0 = (long) Math.floor((Math.min(y0, y1) - pad) / s), j1 = (long) Math.floor((Math.max(y0, y1) + pad) / s);
+      for (long j = j0; j <= j1; j++) {
+        List<Triangle> ts = edgeCells.get(cellKey(i, j));
+        if (ts != null) for (Triangle t : ts) addCrossing(t, sx, sy, tx, ty, seen, crossing);
+      }
     }
+    for (Triangle t : edgeOutliers) addCrossing(t, sx, sy, tx, ty, seen, crossing);
+    return crossing;
   }
 
-  boolean exists(Edge e) { return vertices.contains(e.a) & vertices.contains(e.b); }
+  /** Adds t's edges that overlap the segment and have not been seen. */
+  private void addCrossing(Triangle t, double sx, double sy, double tx, double ty, Set<Edge> seen, List<Edge> crossing) {
+    for (int c = 3 * t.slot; c < 3 * t.slot + 3; c++) {
+      int u = c, w = next(c); // ordered as in Edge, which matters only for collinear points
+      if (vertex(u).id > vertex(w).id) { u = w; w = c; }
+      if (!overlap(x(u), y(u), x(w), y(w), sx, sy, tx, ty)) continue;
+      Edge e = edge(c);
+      if (seen.add(e)) crossing.add(e);
+    }
+  }
+
+  /** Files every triangle in a grid with cells about twice the typical edge length. */
+  private void indexEdges() {
+    double length = 0;
+    for (Triangle t : triangles) length += loc(3 * t.slot).sub(loc(3 * t.slot + 1)).mag();
+    edgeCellSize = Math.max(2 * length / triangles.size(), Double.MIN_NORMAL);
+    edgeCells = Maps.newHashMap(); edgeOutliers = newHashSet();
+    for (Triangle t : triangles) file(t);
+  }
+
+  /** Cells mixed so that neighbors differ in the low bits Long.hashCode keeps; the mixing is one-to-one. */
+  private static long cellKey(long i, long j) { return (i << 32 | j & 0xffffffffL) * 0x9e3779b97f4a7c15L; }
+
+  private void file(Triangle t) { bound(t); enter(t); }
+
+  private void unfile(Triangle t) { leave(t, t.left, t.right, t.bottom, t.top); }
+
+  /** Refiles t if its vertices have moved it into other cells. */
+  private void refile(Triangle t) {
+    long left = t.left, right = t.right, bottom = t.bottom, top = t.top;
+    bound(t);
+    if (t.left == left && t.right == right && t.bottom == bottom && t.top == top) return;
+    leave(t, left, right, bottom, top);
+    enter(t);
+  }
+
+  /** Sets the range of cells t's bounding box touches, or an empty one for an outlier. */
+  private void bound(Triangle t) {
+    double s = edgeCellSize;
+    int a = 3 * t.slot, b = a + 1, c = a + 2;
+    double left = Math.floor(Math.min(x(a), Math.min(x(b), x(c))) / s);
+    double right = Math.floor(Math.max(x(a), Math.max(x(b), x(c))) / s);
+    double bottom = Math.floor(Math.min(y(a), Math.min(y(b), y(c))) / s);
+    double top = Math.floor(Math.max(y(a), Math.max(y(b), y(c))) / s);
+    if (!((right - left + 1) * (top - bottom + 1) <= MAX_CELLS)) { t.left = t.bottom = 0; t.right = t.top = -1; return; }
+    t.left = (long) left; t.right = (long) right; t.bottom = (long) bottom; t.top = (long) top;
+  }
+
+  private void enter(Triangle t) {
+    if (t.left > t.right) { edgeOutliers.add(t); return; }
+    for (long i = t.left; i <= t.right; i++) for (long j = t.bottom; j <= t.top; j++) {
+      Long key = cellKey(i, j);
+      List<Triangle> ts = edgeCells.get(key);
+      if (ts == null) edgeCells.put(key, ts = Lists.newArrayListWithCapacity(4));
+      ts.add(t);
+    }
+  }
+
+  private void leave(Triangle t, long left, long right, long bottom, long top) {
+    if (left > right) { edgeOutliers.remove(t); return; }
+    for (long i = left; i <= right; i++) for (long j = bottom; j <= top; j++) {
+      Long key = cellKey(i, j);
+      List<Triangle> ts = edgeCells.get(key);
+      ts.remove(t);
+      if (ts.isEmpty()) edgeCells.remove(key);
+    }
+  }
+
+  private static <T> T last(List<T> xs) { return xs.get(xs.size() - 1); }
+
+  /** The corner that swings to c, among corners of one vertex. */
+  private int predecessor(int c, List<Integer> cs) {
+    for (int j : cs) if (store.vertexOf(prev(j)) == store.vertexOf(next(c))) return j; return -1; }
+
+  /** The corner that c swings to, among corners of one vertex. */
+  private int successor(int c, List<Integer> cs) {
+    for (int i : cs) if (store.vertexOf(prev(c)) == store.vertexOf(next(i))) return i; return -1; }
+
+  public void physics(double timeStep) { physics(timeStep, null); }
+
+  private static final int SWEEPS = 20, PHYSICS_CHUNK = 1 << 10;
+
+  /* The arithmetic of the Jacobi sweeps; package-private so that benchmarks can choose it. */
+  SpringKernel springKernel = SpringKernel.best();
+
+  /**
+   * Advances the simulation one step. Without a pool the springs are relaxed by Gauss-Seidel
+   * sweeps over the vertices in a random order. With one they are relaxed by Jacobi sweeps
+   * run in parallel: each sweep reads the velocities of the one before from one buffer and
+   * writes the other, so the result is the same whatever the number of threads.
+   */
+  public void physics(final double timeStep, ForkJoinPool pool) {
+    Object started = metrics.physicsStarting();
+    long start = System.nanoTime();
+    forEach(pool, vertices.size(), new Body() { public void run(int lo, int hi) {
+      for (int i = lo; i < hi; i++) { int s = vertices.get(i).slot; store.nextVelocity(0, s, store.vx(s), store.vy(s)); }
+    }});
+    final int last;
+    long sweepStart = System.nanoTime();
+    if (pool == null) {
+      Collections.shuffle(vertices);
+      for (int i = 0; i < vertices.size(); i++) vertices.get(i).index = i;
+      for (int sweep = 0; sweep < SWEEPS; sweep++) for (Vertex v : vertices) relax(v, timeStep);
+      last = 0;
+    } else {
+      for (int sweep = 0; sweep < SWEEPS; sweep++) {
+        final int from = sweep % 2;
+        forEach(pool, vertices.size(), new Body() { public void run(int lo, int hi) { sweep(lo, hi, timeStep, from, 1 - from); }});
+      }
+      last = SWEEPS % 2;
+    }
+    long sweepNanos = System.nanoTime() - sweepStart;
+    forEach(pool, vertices.size(), new Body() { public void run(int lo, int hi) {
+      for (int i = lo; i < hi; i++) {
+        int s = vertices.get(i).slot;
+        double vx = store.nextVx(last, s), vy = store.nextVy(last, s);
+        store.loc(s, store.x(s) + vx * timeStep, store.y(s) + vy * timeStep);
+        store.velocity(s, vx, vy);
+      }
+    }});
+    edgesMoved = edgeCells != null;
+    metrics.physicsStep(started, vertices.size(), SWEEPS, sweepNanos, System.nanoTime() - start);
+  }
+
+  /**
+   * Pulls v by the springs to its neighbors, at the positions their next velocities would
+   * take them to, and updates its own next velocity in place. In coordinates throughout: no
+   * vectors are made and no angles taken.
+   */
+  private void relax(Vertex v, double timeStep) {
+    if (v.physics != VertexPhysics.FREE) return;
+    int s = v.slot;
+    double x = store.x(s), y = store.y(s), nx = x + store.nextVx(0, s) * timeStep, ny = y + store.nextVy(0, s) * timeStep;
+    double ax = 0, ay = GRAVITY;
+    int c = v.corner;
+    do {
+      int a = store.vertexOf(next(c));
+      double actualLength = mag(store.x(a) + store.nextVx(0, a) * timeStep - nx, store.y(a) + store.nextVy(0, a) * timeStep - ny);
+      double stretch = actualLength - edgeTable.rest(edgeTable.of(c));
+      double dx = store.x(a) - x, dy = store.y(a) - y, d = mag(dx, dy);
+      if (d == 0) ax += stretch * SPRING; else { ax += dx * stretch * SPRING / d; ay += dy * stretch * SPRING / d; }
+      c = store.swingNext(c);
+    } while (c != v.corner);
+    double vx = (store.vx(s) * (INERTIA-1) + ax) / INERTIA, vy = (store.vy(s) * (INERTIA-1) + ay) / INERTIA;
+    double speed = mag(vx, vy), damped = speed == 0 ? 0 : Math.max(0, speed - DAMPING) / speed;
+    store.nextVelocity(0, s, vx * damped, vy * damped);
+  }
+
+  /**
+   * One Jacobi sweep over vertices [lo, hi): their springs are gathered into a batch of
+   * parallel arrays, the kernel finds the forces and then the velocities, and these are
+   * written to buffer `to`. Forces are summed for each vertex in swing order, as by relax.
+   */
+  private void sweep(int lo, int hi, double timeStep, int from, int to) {
+    Batch b = batches.get();
+    b.vertices(hi - lo);
+    int m = 0, k = 0;
+    for (int i = lo; i < hi; i++) {
+      Vertex v = vertices.get(i);
+      int s = v.slot;
+      if (v.physics != VertexPhysics.FREE) { store.nextVelocity(to, s, store.nextVx(from, s), store.nextVy(from, s)); continue; }
+      double x = store.x(s), y = store.y(s), nx = x + store.nextVx(from, s) * timeStep, ny = y + store.nextVy(from, s) * timeStep;
+      int c = v.corner;
+      do {
+        if (m == b.dx.length) b.grow();
+        int a = store.vertexOf(next(c));
+        b.dx[m] = store.x(a) - x; b.dy[m] = store.y(a) - y;
+        b.px[m] = store.x(a) + store.nextVx(from, a) * timeStep - nx; b.py[m] = store.y(a) + store.nextVy(from, a) * timeStep - ny;
+        b.rest[m++] = edgeTable.rest(edgeTable.of(c));
+        c = store.swingNext(c);
+      } while (c != v.corner);
+      b.slot[k] = s; b.end[k] = m; b.vx[k] = store.vx(s); b.vy[k] = store.vy(s); k++;
+    }
+    springKernel.forces(m, b.dx, b.dy, b.px, b.py, b.rest, b.fx, b.fy);
+    for (int j = 0, i = 0; j < k; j++) {
+      double ax = 0, ay = GRAVITY;
+      for (; i < b.end[j]; i++) { ax += b.fx[i]; ay += b.fy[i]; }
+      b.ax[j] = ax; b.ay[j] = ay;
+    }
+    springKernel.velocities(k, b.vx, b.vy, b.ax, b.ay);
+    for (int j = 0; j < k; j++) store.nextVelocity(to, b.slot[j], b.ax[j], b.ay[j]);
+  }
+
+  /** The arrays of one sweep's batch: per spring, then per vertex. Kept for each thread. */
+  private static final class Batch {
+    double[] dx = new double[1 << 13], dy = new double[dx.length], px = new double[dx.length], py = new double[dx.length],
+      rest = new double[dx.length], fx = new double[dx.length], fy = new double[dx.length];
+    double[] vx = new double[0], vy = vx, ax = vx, ay = vx;
+    int[] slot = new int[0], end = slot;
+    void grow() {
+      int n = 2 * dx.length;
+      dx = Arrays.copyOf(dx, n); dy = Arrays.copyOf(dy, n); px = Arrays.copyOf(px, n); py = Arrays.copyOf(py, n);
+      rest = Arrays.copyOf(rest, n); fx = new double[n]; fy = new double[n];
+    }
+    void vertices(int n) {
+      if (n <= vx.length) return;
+      vx = new double[n]; vy = new double[n]; ax = new double[n]; ay = new double[n]; slot = new int[n]; end = new int[n];
+    }
+  }
+
+  private static final ThreadLocal<Batch> batches = new ThreadLocal<Batch>() {
+    protected Batch initialValue() { return new Batch(); } };
+
+  private interface Body { void run(int lo, int hi); }
+
+  /** Runs body over [0, n), split into chunks on the pool, or all at once if there is none. */
+  private static void forEach(ForkJoinPool pool, int n, final Body body) {
+    if (pool == null || n <= PHYSICS_CHUNK) { body.run(0, n); return; }
+    class Chunk extends RecursiveAction {
+      private static final long serialVersionUID = 1;
+      final int lo, hi; Chunk(int lo, int hi) { this.lo = lo; this.hi = hi; }
+      protected void compute() {
+        if (hi - lo <= PHYSICS_CHUNK) { body.run(lo, hi); return; }
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Chunk(lo, mid), new Chunk(mid, hi));
+      }
+    }
+    pool.invoke(new Chunk(0, n));
+  }
+
+  boolean exists(Edge e) { return exists(e.a) && exists(e.b) && edgeTable.find(e.a.slot, e.b.slot) >= 0; }
+
+  boolean exists(Vertex v) { return v.index >= 0 && v.index < vertices.size() && vertices.get(v.index) == v; }
+
+  boolean exists(Triangle t) { return t.index >= 0 && t.index < triangles.size() && triangles.get(t.index) == t; }
+
+  /**
+   * Vertices and triangles are removed by moving the last one into their slot, so each one
+   * knows its index.
+   */
+  private void addVertex(Vertex v) { v.index = vertices.size(); vertices.add(v); topology++; }
+
+  private void dropVertex(Vertex v) {
+    topology++;
+    Vertex last = vertices.remove(vertices.size() - 1);
+    if (last != v) { vertices.set(v.index, last); last.index = v.index; }
+    v.index = -1;
+    freeVertices = push(freeVertices, freeVertexCount++, v.slot);
+    if (lastCutVertex == v) lastCutVertex = null;
+  }
+
+  private void addTriangle(Triangle t) {
+    t.index = triangles.size(); triangles.add(t); topology++;
+    int computed = linkEdges(t);
+    metrics.springLengths(3 - computed, computed);
+    if (edgeCells != null) file(t);
+  }
+
+  private void removeTriangle(Triangle t) {
+    if (edgeCells != null) unfile(t);
+    topology++;
+    for (int c = 3 * t.slot; c < 3 * t.slot + 3; c++) edgeTable.unlink(c);
+    Triangle last = triangles.remove(triangles.size() - 1);
+    if (last != t) { triangles.set(t.index, last); last.index = t.index; }
+    t.index = -1;
+    freeTriangles = push(freeTriangles, freeTriangleCount++, t.slot);
+  }
 
   public void remove(Line motion) {
-    for (Mesh.Edge e : edges()) if (overlap(e.line(), motion)) remove(e);
+    for (Edge e : edgesCrossing(motion)) remove(e);
   }
 
   public void remove(Edge e) {
@@ -118,118 +937,337 @@ public final class Mesh {
     for (Triangle t : e.triangles()) remove(t);
   }
   public void remove(Triangle t) {
-    for (Corner c : t.corners()) {
-      c.swings.prev.corner.swings.next = new Swing(c.swings.next.corner, true);
-      c.swings.next.corner.swings.prev = new Swing(c.swings.prev.corner, true);
-    }
-    for (Corner c : t.corners()) if (c.vertex.corner == c) c.vertex.corner = c.swings.next.corner;
+    int base = 3 * t.slot;
+    for (int c = base; c < base + 3; c++) setSwing(store.swingPrev(c), store.swingNext(c), true);
+    for (int c = base; c < base + 3; c++) if (vertex(c).corner == c) vertex(c).corner = store.swingNext(c);
     assert meshIsValid();
-    for (Corner c : t.corners()) {
-      if (c.swings.next.corner == c) {
-        vertices.remove(c.vertex);
+    for (int c = base; c < base + 3; c++) {
+      if (store.swingNext(c) == c) {
+        dropVertex(vertex(c));
       } else {
-        ensureManifold(c.vertex);
+        ensureManifold(vertex(c));
+      }
+    }
+    removeTriangle(t);
+    edgeTable.collect();
+    assert meshIsValid();
+  }
+
+  /**
+   * Links the edges of t's corners, giving each new one its present length as its rest
+   * length, and returns the number of them that were new.
+   */
+  private int linkEdges(Triangle t) {
+    int computed = 0;
+    for (int c = 3 * t.slot; c < 3 * t.slot + 3; c++) {
+      int e = edgeTable.link(c, store.vertexOf(c), store.vertexOf(next(c)));
+      if (Double.isNaN(edgeTable.rest(e))) { edgeTable.rest(e, mag(x(next(c)) - x(c), y(next(c)) - y(c))); computed++; }
+    }
+    return computed;
+  }
+
+  /**
+   * Deletes a vertex and fills the polygon formed by its neighbors by clipping ears,
+   * preferring ears whose circumcircle holds no other neighbor, so that a Delaunay mesh
+   * stays Delaunay. The work depends only on the vertex's degree. On the boundary, only
+   * ears inside the vertex's old triangles are clipped, and whatever cannot be covered
+   * that way becomes boundary. If the polygon cannot be filled because physics has folded
+   * its triangles over, they are removed as by remove(Triangle).
+   */
+  public void removeVertex(Vertex v) {
+    if (!exists(v)) return;
+    List<Integer> fan = newArrayList();
+    int start = v.corner;
+    for (int c : ring(v)) if (superPrev(c)) start = c;
+    int c = start;
+    do { fan.add(c); c = store.swingNext(c); } while (c != start);
+    boolean closed = !store.superNext(last(fan));
+    List<Vertex> ring = newArrayList();
+    for (int f : fan) ring.add(vertex(next(f)));
+    if (!closed) ring.add(vertex(prev(last(fan))));
+    List<Vertex[]> ears = newArrayList();
+    while (ring.size() > (closed ? 3 : 2)) {
+      int ear = -1;
+      for (int i = closed ? 0 : 1; i < (closed ? ring.size() : ring.size() - 1); i++) {
+        if (!isEar(ring, i, closed ? null : v)) continue;
+        if (ear < 0) ear = i;
+        if (isDelaunayEar(ring, i)) { ear = i; break; }
+      }
+      if (ear < 0) break;
+      int n = ring.size();
+      ears.add(tri(ring.get((ear + n - 1) % n), ring.get(ear), ring.get((ear + 1) % n)));
+      ring.remove(ear);
+    }
+    if (closed) {
+      if (ring.size() != 3 || orient2d(ring.get(0).loc(), ring.get(1).loc(), ring.get(2).loc()) <= 0) {
+        for (int f : fan) if (exists(triangle(f))) remove(triangle(f));
+        return;
       }
+      ears.add(tri(ring.get(0), ring.get(1), ring.get(2)));
     }
-    triangles.remove(t);
+    List<Triangle> old = newArrayList();
+    for (int f : fan) old.add(triangle(f));
+    retriangulate(old, ears);
+    assert !exists(v);
     assert meshIsValid();
   }
 
+  /**
+   * Whether the neighbors around ring[i] form a convex corner with no other neighbor on
+   * it or inside it. For a boundary vertex v, the ear must also stay within v's triangles.
+   */
+  private static boolean isEar(List<Vertex> ring, int i, Vertex boundary) {
+    int n = ring.size();
+    Vec a = ring.get((i + n - 1) % n).loc(), b = ring.get(i).loc(), c = ring.get((i + 1) % n).loc();
+    if (orient2d(a, b, c) <= 0) return false;
+    if (boundary != null && orient2d(a, c, boundary.loc()) < 0) return false;
+    for (int j = 0; j < n; j++) {
+      if (j == i || j == (i + n - 1) % n || j == (i + 1) % n) continue;
+      Vec p = ring.get(j).loc();
+      if (orient2d(a, b, p) >= 0 && orient2d(b, c, p) >= 0 && orient2d(c, a, p) >= 0) return false;
+    }
+    return true;
+  }
+
+  private static boolean isDelaunayEar(List<Vertex> ring, int i) {
+    int n = ring.size();
+    Vec a = ring.get((i + n - 1) % n).loc(), b = ring.get(i).loc(), c = ring.get((i + 1) % n).loc();
+    for (int j = 0; j < n; j++) {
+      if (j == i || j == (i + n - 1) % n || j == (i + 1) % n) continue;
+      if (inCircle(a, b, c, ring.get(j).loc()) > 0) return false;
+    }
+    return true;
+  }
+
   Vertex lastCutVertex;
 
+  /* Whether cuts are followed by flips, and the triangles cuts have made that are yet to be flipped. */
+  private boolean flipAfterCut;
+  private List<Triangle> unflipped = newArrayList();
+
+  /**
+   * Whether each cut is followed by Lawson flips over the triangles it made, so that
+   * repeated cuts do not leave slivers behind. The work is proportional to the size of the
+   * cut, not of the mesh. Off by default, since a flip trades a spring, rest length and
+   * all, for one at the other diagonal at its present length.
+   */
+  public boolean flipAfterCut() { return flipAfterCut; }
+  public void setFlipAfterCut(boolean flip) { flipAfterCut = flip; }
+
+  /** Ends a cut: the next one does not slit from where this one left off. */
   public void stopCutting() {
     lastCutVertex = null;
+    flipCut();
+  }
+
+  /**
+   * Flips the triangles made by cuts since the last call. The edges at lastCutVertex are
+   * held, since the next cut slits from there along one of them, and its triangles are
+   * kept to be flipped with the next cut's or by stopCutting.
+   */
+  private void flipCut() {
+    if (unflipped.isEmpty()) return;
+    List<Triangle> touched = unflipped;
+    unflipped = newArrayList();
+    Vertex held = lastCutVertex != null && exists(lastCutVertex) ? lastCutVertex : null;
+    metrics.flips(flip(touched, held));
+    if (held != null) for (int c : ring(held)) unflipped.add(triangle(c));
   }
 
+  /**
+   * Lawson flips from the given triangles outward until every edge of theirs, and every
+   * edge a flip makes, is locally Delaunay; returns the number of flips. Boundary edges
+   * (super swings) are constraints and never flipped, nor are edges at held if it is not
+   * null. An edge is flipped only where its two triangles are counterclockwise and form a
+   * convex quadrilateral, so triangles that physics has folded over are left as they are.
+   */
+  private int flip(Collection<Triangle> touched, Vertex held) {
+    Deque<Triangle> stack = new ArrayDeque<Triangle>(touched);
+    int flips = 0;
+    while (!stack.isEmpty()) {
+      Triangle t = stack.pop();
+      if (!exists(t)) continue;
+      for (int p = 3 * t.slot; p < 3 * t.slot + 3; p++) {
+        int b = next(p);
+        if (superPrev(b)) continue;
+        int n = store.swingPrev(b);
+        Vertex a = vertex(p), c = vertex(prev(p)), d = vertex(next(n));
+        if (d == a || vertex(b) == held || c == held || store.superNext(prev(p))) continue;
+        Vec pa = a.loc(), pb = loc(b), pc = c.loc(), pd = d.loc();
+        if (orient2d(pa, pb, pc) <= 0 || orient2d(pa, pb, pd) <= 0 || orient2d(pa, pd, pc) <= 0) continue;
+        if (inCircle(pa, pb, pc, pd) <= 0) continue;
+        for (Triangle f : flipEdge(p)) stack.push(f);
+        flips++;
+        break;
+      }
+    }
+    return flips;
+  }
+
+  /**
+   * Splits every edge the segment crosses, in order from cut.a() to cut.b(), and slits
+   * the mesh along the path. The walk starts in the triangle holding cut.a() and steps
+   * from each new vertex into the triangle the segment enters next, so the work is
+   * proportional to the number of edges crossed. Where the segment starts outside the
+   * mesh or leaves it, the boundary edge through which it comes back is found by a scan.
+   */
   public void cut(Line cut) {
-    List<Line> ms = Lists.newArrayList(cut);
-    while (ms.get(0).mag() > 1) {
-      List<Line> ms2 = Lists.newArrayList();
-      for (Line $ : ms) {
-        ms2.add(aToB($.a(), $.midpoint()));
-        ms2.add(aToB($.midpoint(), $.b()));
+    Object started = metrics.cutStarting();
+    long start = System.nanoTime();
+    int splits = walk(cut);
+    if (flipAfterCut) flipCut();
+    metrics.cut(started, splits, System.nanoTime() - start);
+  }
+
+  /** The walk of cut(Line), returning the number of edges split. */
+  private int walk(Line cut) {
+    int splits = 0;
+    Vec p = cut.a(), b = cut.b();
+    Triangle t = locate(p);
+    Vertex at = null; // the vertex at p, once the walk has reached one
+    for (int steps = 0; steps <= triangles.size(); steps++) {
+      Edge crossed = null; Vertex through = null; boolean done = false;
+      int[] around = at != null ? ring(at) : t != null ? new int[]{ 3 * t.slot, 3 * t.slot + 1, 3 * t.slot + 2 } : new int[0];
+      for (int c : around) {
+        // The segment leaves c's triangle through the edge facing c if it passes between its ends.
+        Vertex u = vertex(next(c)), w = vertex(prev(c));
+        double ou = orient2d(p, b, u.loc()), ow = orient2d(p, b, w.loc());
+        if (ou < 0 && ow > 0) { if (orient2d(u.loc(), w.loc(), b) < 0) crossed = edge(next(c)); else done = true; break; }
+        if (ou == 0 && u != at && ahead(p, u.loc(), b)) through = u;
       }
-      ms = ms2;
+      if (done || (crossed == null && through == null && at == null && t != null)) break;
+      if (crossed == null && through == null) crossed = entry(p, b, at);
+      t = null;
+      if (crossed != null) {
+        Vertex nv = cut(crossed, cut);
+        if (nv == null) break;
+        splits++;
+        at = nv; p = nv.loc();
+      } else if (through != null) {
+        if (lastCutVertex != null) slit(lastCutVertex, through);
+        lastCutVertex = at = through; p = through.loc();
+      } else break;
     }
-    for (Line $ : ms) for (Mesh.Edge e : edges()) if (overlap(e.line(), $)) cut(e, $);
+    return splits;
   }
 
-  public void cut(final Edge e, final Line cut) {
-    if (!exists(e)) return;
+  /** Whether q lies on the segment from p toward b, past p and before b. */
+  private static boolean ahead(Vec p, Vec q, Vec b) {
+    double dx = b.x() - p.x(), dy = b.y() - p.y(), t = (q.x() - p.x()) * dx + (q.y() - p.y()) * dy;
+    return t > 0 && t < dx * dx + dy * dy;
+  }
+
+  /**
+   * The boundary edge nearest p through which the segment from p to b enters the mesh,
+   * not counting edges at the given vertex; null if there is none.
+   */
+  private Edge entry(Vec p, Vec b, Vertex at) {
+    double px = p.x(), py = p.y(), bx = b.x(), by = b.y();
+    int nearest = -1; double distance = Double.MAX_VALUE; // as a fraction of the way from p to b
+    for (Triangle t : triangles) for (int c = 3 * t.slot; c < 3 * t.slot + 3; c++) {
+      if (!superPrev(c)) continue;
+      int u = store.vertexOf(c), w = store.vertexOf(next(c));
+      double ux = store.x(u), uy = store.y(u), wx = store.x(w), wy = store.y(w);
+      if (at != null && (u == at.slot || w == at.slot) || ux == px && uy == py || wx == px && wy == py
+        || !overlap(ux, uy, wx, wy, px, py, bx, by)) continue;
+      double d = crossing(px, py, bx, by, ux, uy, wx, wy);
+      if (d < distance) { distance = d; nearest = c; }
+    }
+    return nearest < 0 ? null : edge(nearest);
+  }
+
+  /**
+   * Splits the edge where the cut crosses it, slits the mesh from the last vertex made this
+   * way, and returns the new vertex. With flipAfterCut, the triangles made are flipped by
+   * the next cut(Line) or stopCutting.
+   */
+  public Vertex cut(final Edge e, final Line cut) {
+    if (!exists(e)) return null;
 
     List<Triangle> ts = e.triangles();
-    if (ts.size() == 0) return;
+    if (ts.size() == 0) return null;
 
     final Vertex nv = new Vertex(new VertexConfig(intersect(cut, e.line()), VertexPhysics.FREE));
-    vertices.add(nv);
-    double springFraction = e.a.loc.sub(nv.loc).mag() / e.a.loc.sub(e.b.loc).mag();
-    springLength.put(new Edge(e.a, nv), springLength.getUnchecked(new Edge(e.a, e.b)) * springFraction);
-    springLength.put(new Edge(e.b, nv), springLength.getUnchecked(new Edge(e.a, e.b)) * (1 - springFraction));
+    addVertex(nv);
+    double springFraction = e.a.loc().sub(nv.loc()).mag() / e.a.loc().sub(e.b.loc()).mag();
+    double rest = edgeTable.rest(edgeTable.find(e.a.slot, e.b.slot));
 
-    class OldTriangle { Triangle x, y; Corner splitCorner;
+    // The old triangles are removed only once relinked, so that their slots are not reused before.
+    class OldTriangle { final Triangle t; final int split, xa, xb, xc, ya, yb, yc;
       OldTriangle(Triangle t) {
-        triangles.remove(t);
-        splitCorner = Iterables.find(t.corners(), new Predicate<Corner>() {
-          public boolean apply(Corner c) { return !e.vertices().contains(c.vertex); } });
-        x = new Triangle(nv, splitCorner.prev.vertex, splitCorner.vertex);
-        y = new Triangle(nv, splitCorner.vertex, splitCorner.next.vertex);
-        triangles.add(x);
-        triangles.add(y);
-        setSwing(x.a, y.a);
-        setSwing(splitCorner.prev.swings.prev.corner, x.b, splitCorner.prev.swings.prev.isSuper);
-        setSwing(y.c, splitCorner.next.swings.next.corner, splitCorner.next.swings.next.isSuper);
-        setSwing(x.c, splitCorner.swings.next.corner, splitCorner.swings.next.isSuper);
-        setSwing(splitCorner.swings.prev.corner, y.b, splitCorner.swings.prev.isSuper);
-        setSwing(y.b, x.c);
-        splitCorner.vertex.corner = x.c;
-        splitCorner.prev.vertex.corner = x.b;
-        splitCorner.next.vertex.corner = y.c;
+        this.t = t;
+        int s = 3 * t.slot; while (vertex(s) == e.a || vertex(s) == e.b) s++;
+        split = s;
+        Triangle x = new Triangle(nv, vertex(prev(s)), vertex(s)), y = new Triangle(nv, vertex(s), vertex(next(s)));
+        addTriangle(x);
+        addTriangle(y);
+        xa = 3 * x.slot; xb = xa + 1; xc = xa + 2; ya = 3 * y.slot; yb = ya + 1; yc = ya + 2;
+        setSwing(xa, ya, false);
+        setSwing(store.swingPrev(prev(s)), xb, superPrev(prev(s)));
+        setSwing(yc, store.swingNext(next(s)), store.superNext(next(s)));
+        setSwing(xc, store.swingNext(s), store.superNext(s));
+        setSwing(store.swingPrev(s), yb, superPrev(s));
+        setSwing(yb, xc, false);
+        vertex(s).corner = xc;
+        vertex(prev(s)).corner = xb;
+        vertex(next(s)).corner = yc;
       }
     }
     List<OldTriangle> ots = newArrayList();
     for (Triangle t : ts) ots.add(new OldTriangle(t));
+    metrics.trianglesCreated(2 * ots.size());
+    if (flipAfterCut) for (OldTriangle ot : ots) { unflipped.add(triangle(ot.xa)); unflipped.add(triangle(ot.ya)); }
     if (ots.size() == 2) {
       for (int i = 0; i < 2; i++) {
         OldTriangle t1 = ots.get(i), t2 = ots.get((i+1)%2);
-        setSwing(t1.x.b, t2.y.c);
-        setSwing(t2.y.a, t1.x.a);
+        setSwing(t1.xb, t2.yc, false);
+        setSwing(t2.ya, t1.xa, false);
       }
     } else {
       OldTriangle t1 = ots.get(0);
-      setSwing(t1.x.b, t1.splitCorner.prev.swings.next.corner, t1.splitCorner.prev.swings.next.isSuper);
-      setSwing(t1.splitCorner.next.swings.prev.corner, t1.y.c, t1.splitCorner.next.swings.prev.isSuper);
-      setSwing(t1.y.a, t1.x.a, true);
+      int p = prev(t1.split), n = next(t1.split);
+      setSwing(t1.xb, store.swingNext(p), store.superNext(p));
+      setSwing(store.swingPrev(n), t1.yc, superPrev(n));
+      setSwing(t1.ya, t1.xa, true);
     }
-    nv.corner = ots.get(0).x.a;
+    edgeTable.rest(edgeTable.find(e.a.slot, nv.slot), rest * springFraction);
+    edgeTable.rest(edgeTable.find(e.b.slot, nv.slot), rest * (1 - springFraction));
+    for (OldTriangle ot : ots) removeTriangle(ot.t);
+    edgeTable.collect();
+    nv.corner = ots.get(0).xa;
     assert meshIsValid();
-    if (lastCutVertex != null) {
-      for (Corner c : lastCutVertex.corners()) {
-        if (c.next.vertex == nv) {
-          setSwing(c.swings.prev.corner, true);
-          setSwing(c.next, true);
-          ensureManifold(c.vertex);
-          ensureManifold(c.next.vertex);
-          break;
-        }
-      }
-    }
+    if (lastCutVertex != null) slit(lastCutVertex, nv);
     lastCutVertex = nv;
     assert meshIsValid();
+    metrics.edgeSplit();
+    return nv;
+  }
+
+  /** Makes the edge from a to b boundary on both sides. */
+  private void slit(Vertex a, Vertex b) {
+    for (int c : ring(a)) {
+      if (vertex(next(c)) == b) {
+        setSwing(store.swingPrev(c), true);
+        setSwing(next(c), true);
+        ensureManifold(vertex(c));
+        ensureManifold(vertex(next(c)));
+        break;
+      }
+    }
   }
 
   private void ensureManifold(final Vertex v) {
     new Object() {
-      List<List<Corner>> sections = Lists.newArrayList();
-      List<Corner> currentSection;
-      Corner currentCorner = v.corner;
-      void newSection() { sections.add(currentSection = Lists.<Corner>newArrayList()); }
+      List<List<Integer>> sections = Lists.newArrayList();
+      List<Integer> currentSection;
+      int currentCorner = v.corner;
+      void newSection() { sections.add(currentSection = Lists.<Integer>newArrayList()); }
       {
         newSection();
         do {
           currentSection.add(currentCorner);
-          Swing swing = currentCorner.swings.next;
-          if (swing.isSuper) newSection();
-          currentCorner = swing.corner;
+          if (store.superNext(currentCorner)) newSection();
+          currentCorner = store.swingNext(currentCorner);
         } while (currentCorner != v.corner);
         sections.get(sections.size()-1).addAll(sections.get(0));
         sections.remove(0);
@@ -238,35 +1276,258 @@ public final class Mesh {
     };
   }
 
-  private List<Vertex> splitNonManifold(Vertex v, List<List<Corner>> sections) {
-    assert Sets.<Corner>newHashSet(Iterables.concat(sections)).size() ==
-      Lists.<Corner>newArrayList(Iterables.concat(sections)).size();
+  private List<Vertex> splitNonManifold(Vertex v, List<List<Integer>> sections) {
+    assert Sets.<Integer>newHashSet(Iterables.concat(sections)).size() ==
+      Lists.<Integer>newArrayList(Iterables.concat(sections)).size();
     List<Vertex> resultingVertices = newArrayList(v);
     if (sections.size() > 1) {
+      metrics.manifoldSplit(sections.size() - 1);
       for (int i = 0; i < sections.size(); i++) {
-        List<Corner> section = sections.get(i);
-        Corner first = section.get(0), last = section.get(section.size()-1);
+        List<Integer> section = sections.get(i);
+        int first = section.get(0), last = section.get(section.size()-1);
         setSwing(last, first, true);
-        setSwing(first.next, true);
-        setSwing(last.prev.swings.prev.corner, true);
+        setSwing(next(first), true);
+        setSwing(store.swingPrev(prev(last)), true);
         if (i != 0) {
-          Vertex clone = new Vertex(new VertexConfig(v.loc, v.physics));
+          Vertex clone = new Vertex(new VertexConfig(v.loc(), v.physics));
           clone.corner = first;
-          vertices.add(clone);
+          addVertex(clone);
           resultingVertices.add(clone);
-          for (Corner c : section) c.vertex = clone;
+          for (int c : section) moveCorner(c, clone);
         } else {
           v.corner = first;
         }
       }
     }
+    edgeTable.collect();
     for (Vertex rv : resultingVertices) {
-      assert rv.corner.vertex == rv;
+      assert vertex(rv.corner) == rv;
       assert Lists.<Corner>newArrayList(rv.corners()) != null;
     }
     return resultingVertices;
   }
 
+  /** Gives corner c to v, carrying the rest lengths of its two edges over to v's. */
+  private void moveCorner(int c, Vertex v) {
+    double out = edgeTable.rest(edgeTable.of(c)), in = edgeTable.rest(edgeTable.of(prev(c)));
+    edgeTable.unlink(c); edgeTable.unlink(prev(c));
+    store.vertexOf(c, v.slot); topology++;
+    edgeTable.rest(edgeTable.link(c, v.slot, store.vertexOf(next(c))), out);
+    edgeTable.rest(edgeTable.link(prev(c), store.vertexOf(prev(c)), v.slot), in);
+  }
+
+  /*
+   * Snapshots for other threads. The thread that changes the mesh publishes a copy after each
+   * change, and readers take the latest one without locking. Positions are copied each time;
+   * the topology only when vertices, triangles or their corners have changed since the last
+   * copy, and is otherwise shared with it. Physics reorders the vertex list, so positions
+   * are copied in the order the shared topology numbered the vertices.
+   */
+  private long topology;
+  private Snapshot lastSnapshot;
+  private Vertex[] snapshotOrder;
+  private volatile Snapshot published;
+
+  /**
+   * An immutable copy of the mesh's vertices, triangles and edges, which any thread may read.
+   * Each is numbered from zero within the snapshot; a triangle's corners and an edge's ends
+   * are given by vertex number.
+   */
+  public static final class Snapshot {
+    private final long topology;
+    private final int[] vertexIds, corners, triangleIds, ends, edgeIds;
+    private final double[] x, y;
+    private Snapshot(long topology, int[] vertexIds, int[] corners, int[] triangleIds, int[] ends, int[] edgeIds,
+        double[] x, double[] y) {
+      this.topology = topology; this.vertexIds = vertexIds; this.corners = corners; this.triangleIds = triangleIds;
+      this.ends = ends; this.edgeIds = edgeIds; this.x = x; this.y = y; }
+    /** Whether the two share their vertices, triangles and edges, and differ at most in positions. */
+    public boolean sameTopology(Snapshot o) { return o != null && o.corners == corners; }
+    public int vertices() { return vertexIds.length; }
+    public int vertexId(int v) { return vertexIds[v]; }
+    public double x(int v) { return x[v]; } public double y(int v) { return y[v]; }
+    public int triangles() { return triangleIds.length; }
+    public int triangleId(int t) { return triangleIds[t]; }
+    public int corner(int t, int k) { return corners[3 * t + k]; }
+    public int edges() { return edgeIds.length; }
+    public int edgeId(int e) { return edgeIds[e]; }
+    public int a(int e) { return ends[2 * e]; } public int b(int e) { return ends[2 * e + 1]; }
+  }
+
+  /** A copy of the mesh as it is now. */
+  public Snapshot snapshot() {
+    int n = vertices.size();
+    Snapshot last = lastSnapshot;
+    if (last == null || last.topology != topology) snapshotOrder = vertices.toArray(new Vertex[n]);
+    double[] x = new double[n], y = new double[n];
+    for (int i = 0; i < n; i++) { int v = snapshotOrder[i].slot; x[i] = store.x(v); y[i] = store.y(v); }
+    if (last != null && last.topology == topology)
+      return lastSnapshot = new Snapshot(topology, last.vertexIds, last.corners, last.triangleIds, last.ends, last.edgeIds, x, y);
+    int[] vertexIds = new int[n];
+    for (int i = 0; i < n; i++) vertexIds[i] = snapshotOrder[i].id;
+    int[] corners = new int[3 * triangles.size()], triangleIds = new int[triangles.size()];
+    for (int t = 0; t < triangleIds.length; t++) {
+      Triangle tri = triangles.get(t);
+      triangleIds[t] = tri.id;
+      for (int k = 0; k < 3; k++) corners[3 * t + k] = vertex(3 * tri.slot + k).index;
+    }
+    int[] ends = new int[2 * edgeTable.size()], edgeIds = new int[edgeTable.size()];
+    for (int e = 0, i = 0; e < edgeTable.ids(); e++) {
+      if (!edgeTable.live(e)) continue;
+      ends[2 * i] = vertexAt[edgeTable.a(e)].index; ends[2 * i + 1] = vertexAt[edgeTable.b(e)].index; edgeIds[i++] = e;
+    }
+    return lastSnapshot = new Snapshot(topology, vertexIds, corners, triangleIds, ends, edgeIds, x, y);
+  }
+
+  /** Makes a snapshot of the mesh as it is now the one published() returns. Call it from the thread that changes the mesh. */
+  public void publish() { published = snapshot(); }
+
+  /** The snapshot last published, or null if there is none; safe to call from any thread. */
+  public Snapshot published() { return published; }
+
+  /*
+   * The mesh file, little-endian throughout. A header of six ints: MESH_MAGIC, MESH_VERSION,
+   * the numbers of vertices, triangles and edges, and a zero. Then x, y, vx and vy for each
+   * vertex; each edge's rest length; for each corner its vertex, the corner it swings to next
+   * and its edge; a byte of VertexPhysics ordinal for each vertex; and a bit for each corner,
+   * lowest first, set if its swing to the next is super. Vertices and triangles are numbered
+   * in list order, corner k of triangle t being 3t+k, and edges in the order the corners first
+   * refer to them. Loading fills the store and edge table straight from these numbers.
+   */
+  private static final int MESH_MAGIC = 0x594e4c44, MESH_VERSION = 1, MESH_HEADER = 24; // "DLNY"
+
+  /** Writes the mesh to the file, replacing whatever is there, through a memory mapping. */
+  public void save(Path path) throws IOException {
+    int n = vertices.size(), t = triangles.size(), corners = 3 * t, edges = 0;
+    int[] edgeNumber = new int[edgeTable.ids()], edgeOrder = new int[edgeTable.size()];
+    Arrays.fill(edgeNumber, -1);
+    for (Triangle tri : triangles) for (int c = 3 * tri.slot; c < 3 * tri.slot + 3; c++) {
+      int e = edgeTable.of(c);
+      if (edgeNumber[e] < 0) { edgeNumber[e] = edges; edgeOrder[edges++] = e; }
+    }
+    long[] at = meshFileSections(n, t, edges);
+    try (FileChannel channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+      ByteBuffer header = map(channel, READ_WRITE, 0, at[0]), locs = map(channel, READ_WRITE, at[0], at[1] - at[0]),
+        rests = map(channel, READ_WRITE, at[1], at[2] - at[1]), table = map(channel, READ_WRITE, at[2], at[3] - at[2]),
+        physics = map(channel, READ_WRITE, at[3], at[4] - at[3]), supers = map(channel, READ_WRITE, at[4], at[5] - at[4]);
+      try {
+        header.asIntBuffer().put(new int[]{ MESH_MAGIC, MESH_VERSION, n, t, edges, 0 });
+        DoubleBuffer l = locs.asDoubleBuffer();
+        for (Vertex v : vertices) {
+          l.put(store.x(v.slot)).put(store.y(v.slot)).put(store.vx(v.slot)).put(store.vy(v.slot));
+          physics.put((byte) v.physics.ordinal());
+        }
+        DoubleBuffer r = rests.asDoubleBuffer();
+        for (int i = 0; i < edges; i++) r.put(edgeTable.rest(edgeOrder[i]));
+        IntBuffer cs = table.asIntBuffer();
+        byte bits = 0;
+        for (int i = 0; i < corners; i++) {
+          int c = 3 * triangles.get(i / 3).slot + i % 3, next = store.swingNext(c);
+          cs.put(vertexAt[store.vertexOf(c)].index).put(3 * triangle(next).index + next % 3).put(edgeNumber[edgeTable.of(c)]);
+          if (store.superNext(c)) bits |= 1 << (i % 8);
+          if (i % 8 == 7 || i == corners - 1) { supers.put(bits); bits = 0; }
+        }
+      } finally {
+        for (ByteBuffer b : new ByteBuffer[]{ header, locs, rests, table, physics, supers }) MeshStore.release(b);
+      }
+    }
+  }
+
+  /** Reads a file written by save, memory-mapping it; no triangulation is done. */
+  public static Mesh load(Path path) throws IOException { return load(path, Storage.HEAP); }
+
+  /** Reads a file written by save into a mesh keeping its bulk state as given. */
+  public static Mesh load(Path path, Storage storage) throws IOException {
+    Mesh mesh = new Mesh(storage);
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      mesh.read(channel);
+    } catch (IOException | RuntimeException e) {
+      mesh.close();
+      throw e;
+    }
+    return mesh;
+  }
+
+  private void read(FileChannel channel) throws IOException {
+    if (channel.size() < MESH_HEADER) throw new IOException("Not a mesh file");
+    ByteBuffer header = map(channel, READ_ONLY, 0, MESH_HEADER);
+    int magic = header.getInt(0), version = header.getInt(4), n = header.getInt(8), t = header.getInt(12), edges = header.getInt(16);
+    MeshStore.release(header);
+    if (magic != MESH_MAGIC) throw new IOException("Not a mesh file");
+    if (version != MESH_VERSION) throw new IOException("Unsupported mesh file version " + version);
+    if (n < 0 || t < 0 || edges < 0 || t > Integer.MAX_VALUE / 3) throw new IOException("Corrupt mesh file");
+    long[] at = meshFileSections(n, t, edges);
+    if (channel.size() != at[5]) throw new IOException("Mesh file is " + channel.size() + " bytes, not " + at[5]);
+    ByteBuffer locs = map(channel, READ_ONLY, at[0], at[1] - at[0]), rests = map(channel, READ_ONLY, at[1], at[2] - at[1]),
+      table = map(channel, READ_ONLY, at[2], at[3] - at[2]), physics = map(channel, READ_ONLY, at[3], at[4] - at[3]),
+      supers = map(channel, READ_ONLY, at[4], at[5] - at[4]);
+    try {
+      int corners = 3 * t;
+      clear(t, n, 0);
+      VertexPhysics[] kinds = VertexPhysics.values();
+      DoubleBuffer l = locs.asDoubleBuffer();
+      Vertex[] vs = new Vertex[n];
+      for (int i = 0; i < n; i++) {
+        int kind = physics.get(i);
+        if (kind < 0 || kind >= kinds.length) throw new IOException("Corrupt mesh file: vertex " + i + " physics " + kind);
+        vs[i] = new Vertex(l.get(4 * i), l.get(4 * i + 1), kinds[kind]);
+        store.velocity(vs[i].slot, l.get(4 * i + 2), l.get(4 * i + 3));
+      }
+      IntBuffer cs = table.asIntBuffer();
+      for (int i = 0; i < corners; i++)
+        if (cs.get(3 * i) < 0 || cs.get(3 * i) >= n || cs.get(3 * i + 1) < 0 || cs.get(3 * i + 1) >= corners
+            || cs.get(3 * i + 2) < 0 || cs.get(3 * i + 2) >= edges)
+          throw new IOException("Corrupt mesh file: corner " + i);
+      List<Triangle> ts = new ArrayList<Triangle>(t);
+      for (int i = 0; i < t; i++) {
+        Triangle tri = new Triangle(vs[cs.get(9 * i)], vs[cs.get(9 * i + 3)], vs[cs.get(9 * i + 6)]);
+        tri.index = i; ts.add(tri);
+      }
+      // Fresh slots are handed out in order, so each corner's slot is its number in the file.
+      edgeTable.clear(edges);
+      for (int c = 0; c < corners; c++) {
+        int next = cs.get(3 * c + 1);
+        if (store.vertexOf(next) != store.vertexOf(c)) throw new IOException("Corrupt mesh file: swing from corner " + c);
+        setSwing(c, next, (supers.get(c / 8) & 1 << (c % 8)) != 0);
+        if (!edgeTable.attach(c, cs.get(3 * c + 2), store.vertexOf(c), store.vertexOf(next(c))))
+          throw new IOException("Corrupt mesh file: edge of corner " + c);
+      }
+      DoubleBuffer r = rests.asDoubleBuffer();
+      for (int e = 0; e < edges; e++) {
+        if (!edgeTable.live(e)) throw new IOException("Corrupt mesh file: edge " + e + " is in no triangle");
+        edgeTable.rest(e, r.get(e));
+      }
+      triangles = ts; topology++;
+      int[] degree = new int[n];
+      for (int c = 0; c < corners; c++) degree[store.vertexOf(c)]++;
+      vertices = new ArrayList<Vertex>(n);
+      for (Vertex v : vs) {
+        if (v.corner < 0) throw new IOException("Corrupt mesh file: vertex " + v.slot + " is in no triangle");
+        // Swinging must come back around to the first corner after visiting each of them once.
+        int c = v.corner, steps = 0;
+        do { c = store.swingNext(c); steps++; } while (c != v.corner && steps < degree[v.slot]);
+        if (c != v.corner || steps != degree[v.slot])
+          throw new IOException("Corrupt mesh file: the swings of vertex " + v.slot + " do not close into one ring");
+        addVertex(v);
+      }
+    } finally {
+      for (ByteBuffer b : new ByteBuffer[]{ locs, rests, table, physics, supers }) MeshStore.release(b);
+    }
+    assert meshIsValid();
+  }
+
+  /** Where the header and each section of a mesh file end. */
+  private static long[] meshFileSections(int vertices, int triangles, int edges) {
+    long locs = MESH_HEADER + 32L * vertices, rests = locs + 8L * edges, table = rests + 36L * triangles,
+      physics = table + vertices, supers = physics + (3L * triangles + 7) / 8;
+    return new long[]{ MESH_HEADER, locs, rests, table, physics, supers };
+  }
+
+  private static ByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long at, long bytes) throws IOException {
+    if (bytes > Integer.MAX_VALUE) throw new IOException("Mesh file section over 2 GB");
+    return channel.map(mode, at, bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
   public enum VertexPhysics { PINNED, FREE }
 
   public static class VertexConfig {
@@ -277,188 +1538,163 @@ public final class Mesh {
   public class Vertex {
     private final int id = ++previousVertexId; public int id() { return id; }
     public int hashCode() { return id; }
-    private Vec loc; public Vec loc() { return loc; }
+    private int index = -1;
+    private final int slot; // kept after the vertex is dropped, though the slot may be reused
+    public Vec loc() { return xy(store.x(slot), store.y(slot)); }
     private final VertexPhysics physics;
-    private Vertex(VertexConfig config) { this.loc = config.loc; this.physics = config.physics; }
-    private Corner corner; public Corner corner() { return corner; }
-    private Vec velocity = origin(), nextVelocity;
-    Vec nextPosition(double timeStep) { return nextVelocity.mult(timeStep).add(loc); }
+    private Vertex(VertexConfig config) { this(config.loc.x(), config.loc.y(), config.physics); }
+    private Vertex(double x, double y, VertexPhysics physics) {
+      slot = newVertexSlot(this); this.physics = physics;
+      store.loc(slot, x, y); store.velocity(slot, 0, 0);
+    }
+    private int corner = -1; public Corner corner() { return corner < 0 ? null : new Corner(corner); }
     public Iterable<Corner> corners() { return new Iterable<Corner>() {
       public Iterator<Corner> iterator() { return cornersIter(); } }; }
     public Iterator<Corner> cornersIter() { return new Iterator<Corner>() {
-      Corner c = Vertex.this.corner;
-      Set<Corner> visited; { assert (visited = newHashSet()) != null; }
-      public boolean hasNext() { return c != null; }
+      final int start = Vertex.this.corner;
+      int c = start;
+      Set<Integer> visited; { assert (visited = newHashSet()) != null; }
+      public boolean hasNext() { return c >= 0; }
       public Corner next() {
-        if (c == null) throw new NoSuchElementException();
-        Corner retval = c;
-        c = c.swings.next.corner;
-        if (c == Vertex.this.corner) c = null;
+        if (c < 0) throw new NoSuchElementException();
+        int retval = c;
+        c = store.swingNext(c);
+        if (c == start) c = -1;
         assert visited.add(retval);
-        assert triangles.contains(retval.triangle);
-        return retval;
+        assert exists(triangle(retval));
+        return new Corner(retval);
       }
       public void remove() { throw new UnsupportedOperationException(); }
     }; }
   }
 
-  public class Corner {
-    private Triangle triangle; private Corner next, prev;
-    private Vertex vertex; private Swings swings = new Swings();
-    private Corner(Vertex vertex, Triangle triangle) {
-      this.vertex = vertex; this.triangle = triangle;
-      if (vertex.corner == null) vertex.corner = this; }
-    public Triangle triangle() { return triangle; }
-    public Vertex vertex() { return vertex; }
-    public Corner next() { return next; } public Corner prev() { return prev; }
-    public Swings swing() { return swings; }
+  /** A view of one corner of the table. */
+  public final class Corner {
+    private final int c;
+    private Corner(int c) { this.c = c; }
+    public Triangle triangle() { return Mesh.this.triangle(c); }
+    public Vertex vertex() { return Mesh.this.vertex(c); }
+    public Corner next() { return new Corner(Mesh.next(c)); } public Corner prev() { return new Corner(Mesh.prev(c)); }
+    public Swings swing() { return new Swings(new Swing(new Corner(store.swingPrev(c)), superPrev(c)),
+      new Swing(new Corner(store.swingNext(c)), store.superNext(c))); }
+    private Mesh mesh() { return Mesh.this; }
+    public boolean equals(Object o) {
+      return o instanceof Corner && ((Corner) o).c == c && ((Corner) o).mesh() == Mesh.this; }
+    public int hashCode() { return c; }
   }
   public static class Swings {
-    private Swing prev = new Swing(), next = new Swing();
+    private final Swing prev, next;
+    private Swings(Swing prev, Swing next) { this.prev = prev; this.next = next; }
     public Swing prev() { return prev; } public Swing next() { return next; } }
   public static class Swing {
-    private Corner corner; public Corner corner() { return corner; }
-    private boolean isSuper; public boolean isSuper() { return isSuper; }
-    public Swing() {}
+    private final Corner corner; public Corner corner() { return corner; }
+    private final boolean isSuper; public boolean isSuper() { return isSuper; }
     public Swing(Corner corner, boolean isSuper) { this.corner = corner; this.isSuper = isSuper; }
-    public Swing copy() { Swing x = new Swing(); x.corner = corner; x.isSuper = isSuper; return x; }
+    public Swing copy() { return new Swing(corner, isSuper); }
   }
 
-  private static void setSwing(Corner prev, Corner next) {
-    prev.swings.next.corner = next;
-    next.swings.prev.corner = prev;
+  private void setSwing(int prev, int next, boolean isSuper) {
+    store.swingNext(prev, next);
+    store.swingPrev(next, prev);
+    store.superNext(prev, isSuper);
   }
 
-  private static void setSwing(Corner prev, Corner next, boolean isSuper) {
-    setSwing(prev, next);
-    prev.swings.next.isSuper = isSuper;
-    next.swings.prev.isSuper = isSuper;
-  }
-
-  private static void setSwing(Corner prev, boolean isSuper) {
-    setSwing(prev, prev.swings.next.corner, isSuper);
+  private void setSwing(int prev, boolean isSuper) {
+    setSwing(prev, store.swingNext(prev), isSuper);
   }
 
   public class Edge {
+    private final int id; // stable while the edge exists, then reused
     private final Vertex a, b;
-    private Edge(Vertex a, Vertex b) {
-      boolean flip = a.id > b.id;
-      this.a = flip ? b : a; this.b = flip ? a : b; }
+    private Edge(int id) {
+      this.id = id;
+      Vertex u = vertexAt[edgeTable.a(id)], w = vertexAt[edgeTable.b(id)];
+      boolean flip = u.id > w.id;
+      a = flip ? w : u; b = flip ? u : w; }
+    public int id() { return id; }
     public Vertex a() { return a; } public Vertex b() { return b; }
     public List<Vertex> vertices() { return asList(a(), b()); }
-    public Line line() { return aToB(a.loc, b.loc); }
+    public Line line() { return aToB(a.loc(), b.loc()); }
     public boolean equals(Object o) {
       return this == o || (o instanceof Edge && a == ((Edge) o).a && b == ((Edge) o).b); }
     public int hashCode() { return 31 * a.hashCode() + b.hashCode(); }
     public List<Triangle> triangles() {
       List<Triangle> ts = newArrayList(2);
-      Corner c1=null; for (Corner c : a.corners()) if (c.next.vertex == b) c1 = c; if (c1!=null) ts.add(c1.triangle);
-      Corner c2=null; for (Corner c : b.corners()) if (c.next.vertex == a) c2 = c; if (c2!=null) ts.add(c2.triangle);
+      int c1 = -1; for (int c : ring(a)) if (vertex(next(c)) == b) c1 = c; if (c1 >= 0) ts.add(triangle(c1));
+      int c2 = -1; for (int c : ring(b)) if (vertex(next(c)) == a) c2 = c; if (c2 >= 0) ts.add(triangle(c2));
       return ts; }
   }
 
   public class Triangle {
     private final int id = ++previousTriangleId; public int id() { return id; }
     public int hashCode() { return id; }
-    private final Corner a, b, c;
-    public Triangle(Vertex a, Vertex b, Vertex c) {
-      this.a = new Corner(a, this); this.b = new Corner(b, this); this.c = new Corner(c, this);
-      initNextPrev();
-    }
-    public Corner a() { return a; } public Corner b() { return b; } public Corner c() { return c; }
-    private void initNextPrev() { a.next = b; b.next = c; c.next = a; a.prev = c; b.prev = a; c.prev = b; }
-    public List<Corner> corners() { return asList(a, b, c); }
-    public List<Edge> edges() { Vertex a = this.a.vertex, b = this.b.vertex, c = this.c.vertex;
-      return asList(new Edge(a, b), new Edge(b, c), new Edge(c, a)); }
-    public List<Line> lines() { Vec a = this.a.vertex.loc, b = this.b.vertex.loc, c = this.c.vertex.loc;
+    private int index = -1;
+    private final int slot;
+    private long left, right, bottom, top;
+    /* Takes a slot and fills in its corners; the caller links the edges and lists the triangle, so only the mesh makes one. */
+    private Triangle(Vertex a, Vertex b, Vertex c) {
+      slot = newTriangleSlot(this);
+      corner(3 * slot, a); corner(3 * slot + 1, b); corner(3 * slot + 2, c);
+    }
+    private void corner(int corner, Vertex v) {
+      store.vertexOf(corner, v.slot); store.swingNext(corner, corner); store.swingPrev(corner, corner);
+      store.superNext(corner, false);
+      if (v.corner < 0) v.corner = corner;
+    }
+    public Corner a() { return new Corner(3 * slot); }
+    public Corner b() { return new Corner(3 * slot + 1); }
+    public Corner c() { return new Corner(3 * slot + 2); }
+    public List<Corner> corners() { return asList(a(), b(), c()); }
+    public List<Edge> edges() { return asList(edge(3 * slot), edge(3 * slot + 1), edge(3 * slot + 2)); }
+    public List<Line> lines() { Vec a = loc(3 * slot), b = loc(3 * slot + 1), c = loc(3 * slot + 2);
       return asList(aToB(a, b), aToB(b, c), aToB(c, a)); }
-    public boolean contains(Vec p) { for (Line l : lines()) if (l.side(p) != Side.LEFT) return false; return true; }
+    public boolean contains(Vec p) { Vec a = loc(3 * slot), b = loc(3 * slot + 1), c = loc(3 * slot + 2);
+      return orient2d(a, b, p) > 0 && orient2d(b, c, p) > 0 && orient2d(c, a, p) > 0; }
     public Corner earCorner() {
-      for (Corner corner : asList(a, b, c)) if (corner.swings.next.corner == corner) return corner; return null; }
-    public Corner corner(Vertex v) { for (Corner x : corners()) if (x.vertex == v) return x; return null; }
+      for (int c = 3 * slot; c < 3 * slot + 3; c++) if (store.swingNext(c) == c) return new Corner(c); return null; }
+    public Corner corner(Vertex v) { int c = cornerOf(this, v); return c < 0 ? null : new Corner(c); }
   }
 
-  private class Delaunay {
+  private int cornerOf(Triangle t, Vertex v) {
+    for (int c = 3 * t.slot; c < 3 * t.slot + 3; c++) if (store.vertexOf(c) == v.slot) return c; return -1; }
 
-    List<Triangle> triangles = newArrayList();
-    List<Vertex> vertices = newArrayList();
-    List<Edge> edges = newArrayList();
-    List<Edge> convexHull = newArrayList();
-    Map<Edge, Vertex> openEdges = newHashMap();
-
-    Delaunay(Collection<VertexConfig> points) {
-      if (points.size() < 3) throw new IllegalArgumentException();
-      for (VertexConfig p : points) vertices.add(new Vertex(p));
-      calculateConvexHull();
-      for (Edge edge : convexHull.subList(0, 1)) { edges.add(edge); openEdges.put(edge, null); }
-      while (openEdges.size() != 0) tryNextEdge();
-      calculateSwing();
+  /** Builds the Delaunay triangulation and links swings from the corner table in linear time. */
+  private void triangulate(Collection<VertexConfig> points, ForkJoinPool pool) {
+    if (points.size() < 3) throw new IllegalArgumentException();
+    double[] x = new double[points.size()], y = new double[points.size()];
+    int n = 0;
+    for (VertexConfig p : points) { x[n] = p.loc.x(); y[n] = p.loc.y(); n++; }
+    Triangulation d = Triangulation.of(x, y, pool);
+    clear(d.size(), n, (3 * d.size() + n) / 2);
+    List<Vertex> vs = newArrayList();
+    for (VertexConfig p : points) vs.add(new Vertex(p));
+    List<Triangle> ts = newArrayList();
+    int computed = 0;
+    for (int t = 0; t < d.size(); t++) {
+      Triangle tri = new Triangle(vs.get(d.vertex[3*t]), vs.get(d.vertex[3*t+1]), vs.get(d.vertex[3*t+2]));
+      tri.index = t; ts.add(tri);
+      computed += linkEdges(tri);
     }
-
-    void calculateConvexHull() {
-      final Vertex start = min(vertices, new Comparator<Vertex>() {
-        public int compare(Vertex i, Vertex j) { return Double.compare(key(i), key(j)); }
-        double key(Vertex v) {return v.loc().y(); }
-      });
-      Vertex a = start;
-      while (true) {
-        final Vertex a$ = a;
-        Vertex b = min(vertices, new Comparator<Vertex>() {
-          public int compare(Vertex i, Vertex j) { return Double.compare(key(i), key(j)); }
-          double key(Vertex v) { return v == a$ ? Double.MAX_VALUE : (v.loc().sub(a$.loc())).ang(); }
-        });
-        convexHull.add(new Edge(a, b)); a = b; if (a == start) break;
-      }
-    }
-
-    void tryNextEdge() {
-      final Edge edge; Vertex previousVertex; {
-        Entry<Edge, Vertex> entry = openEdges.entrySet().iterator().next();
-        edge = entry.getKey(); previousVertex = entry.getValue(); openEdges.remove(edge); }
-      final Line line = edge.line();
-      Iterable<Vertex> candidateVertices;
-      if (previousVertex == null) {
-        candidateVertices = Iterables.filter(vertices, new Predicate<Vertex>() { public boolean apply(Vertex vertex) {
-          return !edge.vertices().contains(vertex); } });
-      } else {
-        if (convexHull.contains(edge)) return;
-        final Side side = line.side(previousVertex.loc()).opposite();
-        candidateVertices = Iterables.filter(vertices, new Predicate<Vertex>() { public boolean apply(Vertex vertex) {
-          return !edge.vertices().contains(vertex) && line.side(vertex.loc()) == side; } });
-      }
-      if (!candidateVertices.iterator().hasNext()) return;
-      final Vertex v = Ordering.natural().onResultOf(new Function<Vertex, Double>() { public Double apply(Vertex v) {
-        return line.bulge(v.loc()); }}).min(candidateVertices);
-      Triangle t; {
-        Vertex[] tv = { edge.a(), edge.b(), v };
-        // vertices are sorted in clockwise rotation about the circumcenter
-        final Vec cc = circle(tv[0].loc(), tv[1].loc(), tv[2].loc()).center();
-        class X { final double ang; final Vertex v; X(Vertex v) { this.v = v; ang = v.loc().sub(cc).ang(); } }
-        X[] xs = { new X(tv[0]), new X(tv[1]), new X(tv[2]) };
-        Arrays.sort(xs, new Comparator<X>() { public int compare(X a, X b) { return Double.compare(a.ang, b.ang); }});
-        t = new Triangle(xs[0].v, xs[1].v, xs[2].v);
-      }
-      triangles.add(t);
-      for (List<Vertex> vertexPair : ImmutableList.of(edge.vertices(), Lists.reverse(edge.vertices()))) {
-        Vertex u = vertexPair.get(0), w = vertexPair.get(1); Edge uv = new Edge(u, v);
-        if (openEdges.remove(uv) == null) { edges.add(uv); openEdges.put(uv, w); }
-      }
-    }
-
-    void calculateSwing() {
-      Multimap<Vertex, Corner> v2c = ArrayListMultimap.create();
-      for (Triangle t : triangles) for (Corner c : t.corners()) v2c.put(c.vertex, c);
-      for (Collection<Corner> cs : v2c.asMap().values()) {
-        for (Corner i : cs) for (Corner j : cs) if (i.next.vertex == j.prev.vertex) setSwing(j, i);
-        Corner si = null, sj = null;
-        for (Corner i : cs) {
-          if (i.swings.next.corner == null) si = i;
-          if (i.swings.prev.corner == null) sj = i;
-        }
-        if (si != null) setSwing(si, sj, true);
-      }
+    metrics.trianglesCreated(d.size());
+    metrics.springLengths(3 * d.size() - computed, computed);
+    for (int c = 0; c < d.vertex.length; c++) {
+      int s = d.swing(c);
+      if (s >= 0) { setSwing(c, s, false); continue; }
+      int u = c; while (d.unswing(u) >= 0) u = d.unswing(u);
+      setSwing(c, u, true);
     }
+    triangles = ts; topology++;
+    vertices = newArrayList();
+    for (Vertex v : vs) if (v.corner >= 0) addVertex(v); else freeVertices = push(freeVertices, freeVertexCount++, v.slot);
+  }
 
+  /** Empties the store and slot tables, making room for the given numbers of triangles, vertices and edges. */
+  private void clear(int triangles, int vertices, int edges) {
+    store.free(); edgeTable.free(); store = newStore();
+    store.reserve(triangles, vertices);
+    vertexAt = new Vertex[vertices]; vertexSlots = freeVertexCount = 0;
+    triangleAt = new Triangle[triangles]; triangleSlots = freeTriangleCount = 0;
+    edgeTable = new EdgeTable(store); edgeTable.reserve(edges);
   }
 
 }
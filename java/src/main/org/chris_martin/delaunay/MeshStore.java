@@ -0,0 +1,275 @@
+package org.chris_martin.delaunay;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The bulk state of a mesh: for each corner, its vertex slot, the corners it swings to,
+ * whether the swing to the next one is super and the id of its edge; for each vertex slot,
+ * its position, velocity and two buffers for the velocity being computed by physics; and
+ * the columns of the edge table, which it makes with ints() and doubles(). Kept in arrays,
+ * or off the heap in direct buffers so that the collector has none of it to trace or copy.
+ * Only this state moves off the heap; the handles Mesh makes for it do not.
+ */
+abstract class MeshStore {
+
+  abstract int vertexOf(int c); abstract void vertexOf(int c, int v);
+  abstract int swingNext(int c); abstract void swingNext(int c, int next);
+  abstract int swingPrev(int c); abstract void swingPrev(int c, int prev);
+  abstract boolean superNext(int c); abstract void superNext(int c, boolean isSuper);
+  abstract int edgeOf(int c); abstract void edgeOf(int c, int e);
+
+  abstract double x(int v); abstract double y(int v); abstract void loc(int v, double x, double y);
+  abstract double vx(int v); abstract double vy(int v); abstract void velocity(int v, double vx, double vy);
+  abstract double nextVx(int buffer, int v); abstract double nextVy(int buffer, int v);
+  abstract void nextVelocity(int buffer, int v, double vx, double vy);
+
+  /** Makes room for the corners of the given number of triangle slots, and for vertex slots. */
+  abstract void reserve(int triangles, int vertices);
+
+  /** Releases the storage; the store must not be used afterward. Columns it made are freed by their owners. */
+  abstract void free();
+
+  /** A new empty column of ints, kept as this store keeps its own. */
+  abstract Ints ints();
+
+  /** A new empty column of doubles, kept as this store keeps its own. */
+  abstract Doubles doubles();
+
+  /** A column that grows to a length but never shrinks; what it grows by is zero. */
+  abstract static class Ints {
+    abstract int get(int i); abstract void set(int i, int x);
+    abstract int length();
+    /** Grows the column to at least the given length. */
+    abstract void reserve(int length);
+    abstract void free();
+  }
+
+  abstract static class Doubles {
+    abstract double get(int i); abstract void set(int i, double x);
+    abstract int length();
+    abstract void reserve(int length);
+    abstract void free();
+  }
+
+  static MeshStore heap() { return new Heap(); }
+  static MeshStore offHeap() { return new Direct(); }
+
+  private static final class Heap extends MeshStore {
+    private int[] vertexOf = new int[0], swingNext = new int[0], swingPrev = new int[0], edgeOf = new int[0];
+    private BitSet superNext = new BitSet();
+    private double[] x = new double[0], y = new double[0], vx = new double[0], vy = new double[0];
+    private double[][] nextVx = { new double[0], new double[0] }, nextVy = { new double[0], new double[0] };
+
+    int vertexOf(int c) { return vertexOf[c]; } void vertexOf(int c, int v) { vertexOf[c] = v; }
+    int swingNext(int c) { return swingNext[c]; } void swingNext(int c, int next) { swingNext[c] = next; }
+    int swingPrev(int c) { return swingPrev[c]; } void swingPrev(int c, int prev) { swingPrev[c] = prev; }
+    boolean superNext(int c) { return superNext.get(c); } void superNext(int c, boolean isSuper) { superNext.set(c, isSuper); }
+    int edgeOf(int c) { return edgeOf[c]; } void edgeOf(int c, int e) { edgeOf[c] = e; }
+
+    double x(int v) { return x[v]; } double y(int v) { return y[v]; }
+    void loc(int v, double x, double y) { this.x[v] = x; this.y[v] = y; }
+    double vx(int v) { return vx[v]; } double vy(int v) { return vy[v]; }
+    void velocity(int v, double vx, double vy) { this.vx[v] = vx; this.vy[v] = vy; }
+    double nextVx(int buffer, int v) { return nextVx[buffer][v]; } double nextVy(int buffer, int v) { return nextVy[buffer][v]; }
+    void nextVelocity(int buffer, int v, double vx, double vy) { nextVx[buffer][v] = vx; nextVy[buffer][v] = vy; }
+
+    void reserve(int triangles, int vertices) {
+      if (3 * triangles > vertexOf.length) {
+        vertexOf = Arrays.copyOf(vertexOf, 3 * triangles);
+        swingNext = Arrays.copyOf(swingNext, 3 * triangles);
+        swingPrev = Arrays.copyOf(swingPrev, 3 * triangles);
+        edgeOf = Arrays.copyOf(edgeOf, 3 * triangles);
+      }
+      if (vertices > x.length) {
+        x = Arrays.copyOf(x, vertices); y = Arrays.copyOf(y, vertices);
+        vx = Arrays.copyOf(vx, vertices); vy = Arrays.copyOf(vy, vertices);
+        for (int b = 0; b < 2; b++) { nextVx[b] = Arrays.copyOf(nextVx[b], vertices); nextVy[b] = Arrays.copyOf(nextVy[b], vertices); }
+      }
+    }
+
+    void free() {
+      vertexOf = swingNext = swingPrev = edgeOf = null; superNext = null; x = y = vx = vy = null; nextVx = nextVy = null; }
+
+    Ints ints() { return new HeapInts(); }
+    Doubles doubles() { return new HeapDoubles(); }
+  }
+
+  private static final class HeapInts extends Ints {
+    private int[] a = new int[0];
+    int get(int i) { return a[i]; } void set(int i, int x) { a[i] = x; }
+    int length() { return a.length; }
+    void reserve(int length) { if (length > a.length) a = Arrays.copyOf(a, length); }
+    void free() { a = null; }
+  }
+
+  private static final class HeapDoubles extends Doubles {
+    private double[] a = new double[0];
+    double get(int i) { return a[i]; } void set(int i, double x) { a[i] = x; }
+    int length() { return a.length; }
+    void reserve(int length) { if (length > a.length) a = Arrays.copyOf(a, length); }
+    void free() { a = null; }
+  }
+
+  /*
+   * Direct buffers are kept in chunks of 2^SHIFT records, so that no one buffer need pass
+   * the 2 GB a ByteBuffer can hold. Until a store or column fills one chunk it has only the
+   * one, sized to fit and grown by copying into a new buffer and freeing the old one at once
+   * rather than waiting for the collector to notice it; after that, growing adds chunks and
+   * copies nothing.
+   */
+  private static final int SHIFT = 20, MASK = (1 << SHIFT) - 1;
+
+  /**
+   * Corners are four ints (vertex, next, previous, and the edge id shifted left past the
+   * super flag) and vertices eight doubles, interleaved so that one corner or vertex shares
+   * a cache line.
+   */
+  private static final class Direct extends MeshStore {
+    private static final int CORNER = 4, VERTEX = 8;
+    private ByteBuffer[] cornerBytes = new ByteBuffer[0], vertexBytes = new ByteBuffer[0];
+    private IntBuffer[] corners = new IntBuffer[0];
+    private DoubleBuffer[] vertices = new DoubleBuffer[0];
+
+    private int corner(int c, int field) { return corners[c >>> SHIFT].get(CORNER * (c & MASK) + field); }
+    private void corner(int c, int field, int value) { corners[c >>> SHIFT].put(CORNER * (c & MASK) + field, value); }
+    private double vertex(int v, int field) { return vertices[v >>> SHIFT].get(VERTEX * (v & MASK) + field); }
+    private void vertex(int v, int field, double value) { vertices[v >>> SHIFT].put(VERTEX * (v & MASK) + field, value); }
+
+    int vertexOf(int c) { return corner(c, 0); } void vertexOf(int c, int v) { corner(c, 0, v); }
+    int swingNext(int c) { return corner(c, 1); } void swingNext(int c, int next) { corner(c, 1, next); }
+    int swingPrev(int c) { return corner(c, 2); } void swingPrev(int c, int prev) { corner(c, 2, prev); }
+    boolean superNext(int c) { return (corner(c, 3) & 1) != 0; }
+    void superNext(int c, boolean isSuper) { corner(c, 3, corner(c, 3) & ~1 | (isSuper ? 1 : 0)); }
+    int edgeOf(int c) { return corner(c, 3) >> 1; } void edgeOf(int c, int e) { corner(c, 3, e << 1 | corner(c, 3) & 1); }
+
+    double x(int v) { return vertex(v, 0); } double y(int v) { return vertex(v, 1); }
+    void loc(int v, double x, double y) { vertex(v, 0, x); vertex(v, 1, y); }
+    double vx(int v) { return vertex(v, 2); } double vy(int v) { return vertex(v, 3); }
+    void velocity(int v, double vx, double vy) { vertex(v, 2, vx); vertex(v, 3, vy); }
+    double nextVx(int buffer, int v) { return vertex(v, 4 + 2 * buffer); }
+    double nextVy(int buffer, int v) { return vertex(v, 5 + 2 * buffer); }
+    void nextVelocity(int buffer, int v, double vx, double vy) { vertex(v, 4 + 2 * buffer, vx); vertex(v, 5 + 2 * buffer, vy); }
+
+    void reserve(int triangles, int vertices) {
+      ByteBuffer[] grown = grow(cornerBytes, 4 * CORNER, 3L * triangles);
+      if (grown != cornerBytes) {
+        cornerBytes = grown; corners = new IntBuffer[grown.length];
+        for (int i = 0; i < grown.length; i++) corners[i] = grown[i].asIntBuffer();
+      }
+      grown = grow(vertexBytes, 8 * VERTEX, vertices);
+      if (grown != vertexBytes) {
+        vertexBytes = grown; this.vertices = new DoubleBuffer[grown.length];
+        for (int i = 0; i < grown.length; i++) this.vertices[i] = grown[i].asDoubleBuffer();
+      }
+    }
+
+    void free() {
+      for (ByteBuffer b : cornerBytes) release(b);
+      for (ByteBuffer b : vertexBytes) release(b);
+      cornerBytes = vertexBytes = null; corners = null; vertices = null;
+    }
+
+    Ints ints() { return new DirectInts(); }
+    Doubles doubles() { return new DirectDoubles(); }
+  }
+
+  private static final class DirectInts extends Ints {
+    private ByteBuffer[] bytes = new ByteBuffer[0];
+    private IntBuffer[] chunks = new IntBuffer[0];
+    private int length;
+
+    int get(int i) { return chunks[i >>> SHIFT].get(i & MASK); }
+    void set(int i, int x) { chunks[i >>> SHIFT].put(i & MASK, x); }
+    int length() { return length; }
+
+    void reserve(int length) {
+      if (length <= this.length) return;
+      ByteBuffer[] grown = grow(bytes, 4, length);
+      if (grown != bytes) {
+        bytes = grown; chunks = new IntBuffer[grown.length];
+        for (int i = 0; i < grown.length; i++) chunks[i] = grown[i].asIntBuffer();
+      }
+      this.length = length;
+    }
+
+    void free() { for (ByteBuffer b : bytes) release(b); bytes = null; chunks = null; }
+  }
+
+  private static final class DirectDoubles extends Doubles {
+    private ByteBuffer[] bytes = new ByteBuffer[0];
+    private DoubleBuffer[] chunks = new DoubleBuffer[0];
+    private int length;
+
+    double get(int i) { return chunks[i >>> SHIFT].get(i & MASK); }
+    void set(int i, double x) { chunks[i >>> SHIFT].put(i & MASK, x); }
+    int length() { return length; }
+
+    void reserve(int length) {
+      if (length <= this.length) return;
+      ByteBuffer[] grown = grow(bytes, 8, length);
+      if (grown != bytes) {
+        bytes = grown; chunks = new DoubleBuffer[grown.length];
+        for (int i = 0; i < grown.length; i++) chunks[i] = grown[i].asDoubleBuffer();
+      }
+      this.length = length;
+    }
+
+    void free() { for (ByteBuffer b : bytes) release(b); bytes = null; chunks = null; }
+  }
+
+  /** Chunks holding at least the given number of records, or the same chunks if they already do. */
+  private static ByteBuffer[] grow(ByteBuffer[] chunks, int recordBytes, long records) {
+    long chunkBytes = (long) recordBytes << SHIFT, held = 0;
+    for (ByteBuffer b : chunks) held += b.capacity();
+    if (records * recordBytes <= held) return chunks;
+    int n = (int) ((records + MASK) >>> SHIFT);
+    ByteBuffer[] grown = Arrays.copyOf(chunks, n);
+    if (chunks.length == 0 || chunks[0].capacity() < chunkBytes) {
+      grown[0] = allocate(n == 1 ? records * recordBytes : chunkBytes);
+      if (chunks.length > 0) {
+        ByteBuffer old = chunks[0].duplicate(); old.clear();
+        grown[0].put(old); grown[0].clear();
+        release(chunks[0]);
+      }
+    }
+    for (int i = Math.max(1, chunks.length); i < n; i++) grown[i] = allocate(chunkBytes);
+    return grown;
+  }
+
+  private static ByteBuffer allocate(long bytes) {
+    return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+  }
+
+  /* Frees a direct or mapped buffer now: by Unsafe.invokeCleaner where there is one, else by its cleaner. */
+  private static final Object unsafe; private static final Method invokeCleaner;
+  static {
+    Object u = null; Method m = null;
+    try {
+      Class<?> c = Class.forName("sun.misc.Unsafe");
+      m = c.getMethod("invokeCleaner", ByteBuffer.class);
+      Field f = c.getDeclaredField("theUnsafe"); f.setAccessible(true);
+      u = f.get(null);
+    } catch (Exception e) { m = null; }
+    unsafe = u; invokeCleaner = m;
+  }
+
+  static void release(ByteBuffer buffer) {
+    if (buffer == null) return;
+    try {
+      if (invokeCleaner != null) { invokeCleaner.invoke(unsafe, buffer); return; }
+      Method cleaner = buffer.getClass().getMethod("cleaner"); cleaner.setAccessible(true);
+      Object c = cleaner.invoke(buffer);
+      if (c != null) c.getClass().getMethod("clean").invoke(c);
+    } catch (Exception e) {
+      // Left to the collector.
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+package org.chris_martin.delaunay;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the hot paths of Mesh and Graphics report about the work they did: the triangles
+ * they made, the edges cuts split and flipped, the vertices made to keep the mesh
+ * manifold, the rest lengths found already known, and how long triangulation, physics
+ * steps, cuts and painting took. Every method here does nothing, so a subclass overrides
+ * only what it wants, and with NONE a report is a call the JIT inlines away. Reports are
+ * made per operation, or per triangle made or edge split, never per vertex of a sweep.
+ *
+ * A physics step and a cut each report their start too, and get back at their end whatever
+ * was returned then, so that an implementation can time them as spans of its own.
+ */
+public abstract class Metrics {
+
+  public static final Metrics NONE = new Metrics() { public String toString() { return "no metrics"; } };
+
+  /**
+   * New counters. Where the JVM has jdk.jfr they are compiled from src/jfr and also record
+   * a JFR event for each physics step and each cut, which costs a flag check unless a
+   * recording has enabled them.
+   */
+  public static Counters counters() {
+    try {
+      return (Counters) Class.forName("org.chris_martin.delaunay.JfrMetrics").getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return new Counters();
+    }
+  }
+
+  /** The points were triangulated from scratch. */
+  public void triangulated(int points, long nanos) {}
+
+  public void trianglesCreated(int n) {}
+
+  /** Edges were linked for a new triangle: cached of them kept the rest length they had, and the rest were given their length. */
+  public void springLengths(int cached, int computed) {}
+
+  /** A vertex whose triangles no longer formed one fan was split into clones more vertices, one per extra fan. */
+  public void manifoldSplit(int clones) {}
+
+  public void edgeSplit() {}
+
+  /** Edges were flipped to restore the Delaunay property after a cut. */
+  public void flips(int n) {}
+
+  /** A physics step is starting; what this returns is given to physicsStep at its end. */
+  public Object physicsStarting() { return null; }
+
+  /** A physics step of the given sweeps over the vertices took nanos, sweepNanos of it in the sweeps. */
+  public void physicsStep(Object started, int vertices, int sweeps, long sweepNanos, long nanos) {}
+
+  /** A cut along a segment is starting; what this returns is given to cut at its end. */
+  public Object cutStarting() { return null; }
+
+  public void cut(Object started, int edgesSplit, long nanos) {}
+
+  /** A frame drew the given number of dirty regions of the scene. */
+  public void painted(int regions, long nanos) {}
+
+  /** Running totals of everything reported, safe to report to from several threads and to read from any. */
+  public static class Counters extends Metrics {
+    private final AtomicLong triangulations = new AtomicLong(), triangulationNanos = new AtomicLong(),
+      trianglesCreated = new AtomicLong(), edgesSplit = new AtomicLong(), manifoldClones = new AtomicLong(), flips = new AtomicLong(),
+      springLengthsCached = new AtomicLong(), springLengthsComputed = new AtomicLong(),
+      physicsSteps = new AtomicLong(), physicsNanos = new AtomicLong(), sweepNanos = new AtomicLong(), maxPhysicsNanos = new AtomicLong(),
+      cuts = new AtomicLong(), cutNanos = new AtomicLong(), maxCutNanos = new AtomicLong(),
+      paints = new AtomicLong(), paintNanos = new AtomicLong(), maxPaintNanos = new AtomicLong();
+
+    public void triangulated(int points, long nanos) { triangulations.incrementAndGet(); triangulationNanos.addAndGet(nanos); }
+    public void trianglesCreated(int n) { trianglesCreated.addAndGet(n); }
+    public void springLengths(int cached, int computed) {
+      if (cached > 0) springLengthsCached.addAndGet(cached);
+      if (computed > 0) springLengthsComputed.addAndGet(computed);
+    }
+    public void manifoldSplit(int clones) { manifoldClones.addAndGet(clones); }
+    public void edgeSplit() { edgesSplit.incrementAndGet(); }
+    public void flips(int n) { if (n > 0) flips.addAndGet(n); }
+    public void physicsStep(Object started, int vertices, int sweeps, long sweepNanos, long nanos) {
+      physicsSteps.incrementAndGet(); physicsNanos.addAndGet(nanos); this.sweepNanos.addAndGet(sweepNanos); max(maxPhysicsNanos, nanos);
+    }
+    public void cut(Object started, int edgesSplit, long nanos) { cuts.incrementAndGet(); cutNanos.addAndGet(nanos); max(maxCutNanos, nanos); }
+    public void painted(int regions, long nanos) { paints.incrementAndGet(); paintNanos.addAndGet(nanos); max(maxPaintNanos, nanos); }
+
+    private static void max(AtomicLong max, long x) {
+      for (long m = max.get(); x > m && !max.compareAndSet(m, x); m = max.get()) {}
+    }
+
+    public long triangulations() { return triangulations.get(); }
+    public long triangulationNanos() { return triangulationNanos.get(); }
+    public long trianglesCreated() { return trianglesCreated.get(); }
+    public long edgesSplit() { return edgesSplit.get(); }
+    public long manifoldClones() { return manifoldClones.get(); }
+    public long flips() { return flips.get(); }
+    public long physicsSteps() { return physicsSteps.get(); }
+    public long physicsNanos() { return physicsNanos.get(); }
+    public long sweepNanos() { return sweepNanos.get(); }
+    public long maxPhysicsNanos() { return maxPhysicsNanos.get(); }
+    public long cuts() { return cuts.get(); }
+    public long cutNanos() { return cutNanos.get(); }
+    public long maxCutNanos() { return maxCutNanos.get(); }
+    public long paints() { return paints.get(); }
+    public long paintNanos() { return paintNanos.get(); }
+    public long maxPaintNanos() { return maxPaintNanos.get(); }
+
+    /** The fraction of rest lengths looked up for new triangles that were already known, or NaN if none were. */
+    public double springLengthHitRate() {
+      long cached = springLengthsCached.get(), all = cached + springLengthsComputed.get();
+      return all == 0 ? Double.NaN : (double) cached / all;
+    }
+
+    public String toString() {
+      return String.format("%d triangulations in %.1f ms, %d triangles created, %d edges split, %d manifold clones, %d flips, " +
+          "%.1f%% of spring lengths cached%n" +
+          "%d physics steps in %.1f ms (%.1f ms in sweeps, max %.2f ms), %d cuts in %.1f ms (max %.2f ms), " +
+          "%d paints in %.1f ms (max %.2f ms)",
+        triangulations(), triangulationNanos() / 1e6, trianglesCreated(), edgesSplit(), manifoldClones(), flips(),
+        100 * springLengthHitRate(),
+        physicsSteps(), physicsNanos() / 1e6, sweepNanos() / 1e6, maxPhysicsNanos() / 1e6, cuts(), cutNanos() / 1e6, maxCutNanos() / 1e6,
+        paints(), paintNanos() / 1e6, maxPaintNanos() / 1e6);
+    }
+  }
+
+}
@@ -0,0 +1,253 @@
+package org.chris_martin.delaunay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+import org.chris_martin.delaunay.Mesh.VertexConfig;
+import org.chris_martin.delaunay.Mesh.VertexPhysics;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.chris_martin.delaunay.Geometry.xy;
+
+/**
+ * Reads and writes files of points, streaming them through a fixed buffer so that a file of
+ * any size is read with memory only for its points.
+ *
+ * A text file holds one point per line, "x y" or "x,y", optionally followed by "pinned" for
+ * a vertex physics does not move; anything else on the line is an error. Blank lines and
+ * lines starting with '#' are skipped, and so is the first other line if it does not start
+ * with a number, as a CSV header would. Numbers are
+ * parsed from the bytes in place; only one whose digits exceed 2^53 or whose power of ten
+ * is beyond 22 is handed to Double.parseDouble as a string.
+ *
+ * A binary file, little-endian, starts with the int POINT_MAGIC, the int POINT_VERSION and
+ * the long number of points, and then has x and y as doubles and a byte of VertexPhysics
+ * ordinal for each point.
+ */
+public final class PointFile {
+
+  private PointFile() {}
+
+  static final int POINT_MAGIC = 0x504e4c44, POINT_VERSION = 1, POINT_HEADER = 16, POINT_RECORD = 17; // "DLNP"
+  private static final int CHUNK = 1 << 20;
+
+  /** The points in a text or binary file, told apart by the binary file's magic number. */
+  public static List<VertexConfig> read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ)) { return read(channel, CHUNK); }
+  }
+
+  static List<VertexConfig> read(ReadableByteChannel channel, int chunk) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(chunk).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.position() < 4 && channel.read(buffer) >= 0) {}
+    buffer.flip();
+    return buffer.remaining() >= 4 && buffer.getInt(0) == POINT_MAGIC ? readBinary(channel, buffer) : readText(channel, buffer);
+  }
+
+  /** Writes the points as a binary file, replacing whatever is there. */
+  public static void write(Path path, Collection<VertexConfig> points) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(POINT_MAGIC).putInt(POINT_VERSION).putLong(points.size());
+      for (VertexConfig p : points) {
+        if (buffer.remaining() < POINT_RECORD) drain(channel, buffer);
+        buffer.putDouble(p.loc.x()).putDouble(p.loc.y()).put((byte) p.physics.ordinal());
+      }
+      drain(channel, buffer);
+    }
+  }
+
+  private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+
+  /**
+   * Reads more of the channel into the buffer, keeping its unread bytes. Returns false at
+   * the end of the channel.
+   */
+  private static boolean fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.compact();
+    int n;
+    do { n = channel.read(buffer); } while (n == 0 && buffer.hasRemaining());
+    buffer.flip();
+    return n >= 0;
+  }
+
+  private static List<VertexConfig> readBinary(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.remaining() < POINT_HEADER) if (!fill(channel, buffer)) throw new IOException("Truncated point file header");
+    buffer.getInt();
+    int version = buffer.getInt();
+    long n = buffer.getLong();
+    if (version != POINT_VERSION) throw new IOException("Unsupported point file version " + version);
+    if (n < 0 || n > Integer.MAX_VALUE - 8) throw new IOException("Point file holds " + n + " points");
+    VertexPhysics[] kinds = VertexPhysics.values();
+    List<VertexConfig> points = newArrayList();
+    for (long i = 0; i < n; i++) {
+      while (buffer.remaining() < POINT_RECORD)
+        if (!fill(channel, buffer)) throw new IOException("Point file ends after " + i + " of " + n + " points");
+      double x = buffer.getDouble(), y = buffer.getDouble();
+      int kind = buffer.get();
+      if (kind < 0 || kind >= kinds.length) throw new IOException("Point " + i + " has physics " + kind);
+      points.add(new VertexConfig(xy(x, y), kinds[kind]));
+    }
+    return points;
+  }
+
+  private static List<VertexConfig> readText(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    List<VertexConfig> points = newArrayList();
+    Parser parser = new Parser(buffer);
+    boolean more = true;
+    for (long line = 1; ; line++) {
+      int end = newline(buffer, buffer.position());
+      while (end < 0 && more) {
+        if (buffer.remaining() == buffer.capacity()) throw new IOException("Line " + line + " is over " + buffer.capacity() + " bytes");
+        int scanned = buffer.remaining();
+        more = fill(channel, buffer);
+        end = newline(buffer, buffer.position() + scanned);
+      }
+      if (end < 0) {
+        if (!buffer.hasRemaining()) return points;
+        end = buffer.limit();
+      }
+      VertexConfig p = parser.line(buffer.position(), end, line);
+      if (p != null) points.add(p);
+      buffer.position(Math.min(end + 1, buffer.limit()));
+    }
+  }
+
+  /** The position of the first '\n' in the buffer from the given one up to its limit, or -1. */
+  private static int newline(ByteBuffer buffer, int from) {
+    for (int i = from; i < buffer.limit(); i++) if (buffer.get(i) == '\n') return i;
+    return -1;
+  }
+
+  /** Parses lines of the buffer by absolute position, leaving its position alone. */
+  private static final class Parser {
+    private final ByteBuffer buffer;
+    private final StringBuilder slow = new StringBuilder();
+    private int pos;
+    private double value;
+    private boolean started; // whether a line other than a blank or a comment has been seen
+
+    Parser(ByteBuffer buffer) { this.buffer = buffer; }
+
+    /** The point on the line [start, end), or null if it is a line to skip. */
+    VertexConfig line(int start, int end, long line) throws IOException {
+      pos = start;
+      skip(end, false);
+      if (pos == end || buffer.get(pos) == '#') return null;
+      boolean first = !started;
+      started = true;
+      if (!number(end)) {
+        if (first) return null;
+        throw new IOException("Line " + line + " does not start with a number");
+      }
+      double x = value;
+      if (!separated(end) || !number(end)) throw unexpected(line, end, "a second number");
+      double y = value;
+      VertexPhysics physics = VertexPhysics.FREE;
+      if (separated(end)) {
+        if (!word(end, "pinned")) throw unexpected(line, end, "the end of the line or 'pinned'");
+        pos += "pinned".length();
+        physics = VertexPhysics.PINNED;
+        skip(end, false);
+      }
+      if (pos < end) throw unexpected(line, end, "the end of the line");
+      return new VertexConfig(xy(x, y), physics);
+    }
+
+    /**
+     * Skips a separator and returns true if something follows it, or false at the end of the
+     * line. A number run into the next token without one, as in "1.2.3", is an error.
+     */
+    private boolean separated(int end) {
+      int at = pos;
+      skip(end, true);
+      return pos > at && pos < end;
+    }
+
+    private IOException unexpected(long line, int end, String expected) {
+      String found = pos < end ? "'" + text(pos, end) + "'" : "the end of the line";
+      return new IOException("Line " + line + " has " + found + " where it should have " + expected);
+    }
+
+    /** The bytes [start, end) as text, without a trailing carriage return. */
+    private String text(int start, int end) {
+      slow.setLength(0);
+      for (int i = start; i < end && buffer.get(i) != '\r'; i++) slow.append((char) buffer.get(i));
+      return slow.toString();
+    }
+
+    /** Skips spaces, tabs and carriage returns, and commas too if separating. */
+    private void skip(int end, boolean separating) {
+      while (pos < end) {
+        byte b = buffer.get(pos);
+        if (b == ' ' || b == '\t' || b == '\r' || (separating && b == ',')) pos++; else return;
+      }
+    }
+
+    private boolean word(int end, String word) {
+      if (end - pos < word.length()) return false;
+      for (int i = 0; i < word.length(); i++) if (Character.toLowerCase(buffer.get(pos + i)) != word.charAt(i)) return false;
+      return true;
+    }
+
+    private static final double[] TENS = new double[23];
+    static { TENS[0] = 1; for (int i = 1; i < TENS.length; i++) TENS[i] = TENS[i - 1] * 10; }
+
+    /**
+     * Parses a decimal number at pos into value and moves past it; false if there is none.
+     * A mantissa below 2^53 scaled by an exact power of ten up to 10^22 is rounded
+     * correctly by one multiplication or division. Anything else goes to Double.parseDouble.
+     */
+    private boolean number(int end) {
+      int start = pos;
+      boolean negative = false;
+      if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) negative = buffer.get(pos++) == '-';
+      long mantissa = 0;
+      int digits = 0, significant = 0, scale = 0;
+      boolean point = false, dropped = false;
+      for (; pos < end; pos++) {
+        byte b = buffer.get(pos);
+        if (b == '.' && !point) { point = true; continue; }
+        if (b < '0' || b > '9') break;
+        digits++;
+        if (mantissa == 0 && b == '0') { if (point) scale--; continue; }
+        if (significant < 18) { mantissa = 10 * mantissa + (b - '0'); significant++; if (point) scale--; }
+        else { dropped = true; if (!point) scale++; }
+      }
+      if (digits == 0) { pos = start; return false; }
+      if (pos < end && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+        int e = pos + 1, exponent = 0;
+        boolean negativeExponent = false;
+        if (e < end && (buffer.get(e) == '-' || buffer.get(e) == '+')) negativeExponent = buffer.get(e++) == '-';
+        int first = e;
+        for (; e < end && buffer.get(e) >= '0' && buffer.get(e) <= '9'; e++) exponent = Math.min(100000, 10 * exponent + buffer.get(e) - '0');
+        if (e > first) { pos = e; scale += negativeExponent ? -exponent : exponent; }
+      }
+      if (mantissa == 0) value = 0;
+      else if (!dropped && mantissa < 1L << 53 && scale >= -22 && scale <= 22)
+        value = scale < 0 ? mantissa / TENS[-scale] : mantissa * TENS[scale];
+      else {
+        slow.setLength(0);
+        for (int i = start; i < pos; i++) slow.append((char) buffer.get(i));
+        value = Double.parseDouble(slow.toString());
+        return true;
+      }
+      if (negative) value = -value;
+      return true;
+    }
+  }
+
+}
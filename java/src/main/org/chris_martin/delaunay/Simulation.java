@@ -0,0 +1,163 @@
+package org.chris_martin.delaunay;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import org.chris_martin.delaunay.Geometry.Line;
+import org.chris_martin.delaunay.Mesh.VertexConfig;
+import org.chris_martin.delaunay.Mesh.VertexPhysics;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.chris_martin.delaunay.Geometry.aToB;
+import static org.chris_martin.delaunay.Geometry.xy;
+
+/**
+ * Runs a mesh's physics at a fixed timestep without a display, applying scripted cuts and
+ * removals before the steps they are given for, and times every step. Nothing here touches
+ * AWT, so it runs on a headless server.
+ *
+ * Usage: Simulation [-points file | -n count] [-steps n] [-dt ms] [-substeps k] [-threads t]
+ *   [-offheap] [-flip] [-seed s] [-cut step:x1,y1,x2,y2]... [-remove step:x1,y1,x2,y2]...
+ *
+ * A points file is read by PointFile, as text with one point per line, "x y" or "x,y",
+ * followed by "pinned" for a vertex physics does not move, or as binary. Without one, count
+ * random points (100000 by default) are scattered over an 800 by 600 frame pinned at its
+ * corners.
+ *
+ * With -flip, edges are flipped after each cut to keep the mesh Delaunay around it. At
+ * the end the mesh's Metrics.counters() are printed. Run with -XX:StartFlightRecording
+ * to record a JFR event for each physics step and cut as well.
+ */
+public final class Simulation {
+
+  /** Something done to the mesh between steps. */
+  public interface Event { void apply(Mesh mesh); }
+
+  public static Event cut(final Line line) { return new Event() {
+    public void apply(Mesh mesh) { mesh.cut(line); mesh.stopCutting(); }
+    public String toString() { return "cut " + line; } }; }
+
+  public static Event remove(final Line line) { return new Event() {
+    public void apply(Mesh mesh) { mesh.remove(line); }
+    public String toString() { return "remove " + line; } }; }
+
+  private final Mesh mesh;
+  private final double timeStep;
+  private final int substeps;
+  private final ForkJoinPool pool;
+  private final ListMultimap<Integer, Event> events = ArrayListMultimap.create();
+  private int step;
+
+  /**
+   * Each step advances the mesh by timeStep milliseconds in the given number of physics
+   * calls, with Jacobi sweeps on the pool if there is one.
+   */
+  public Simulation(Mesh mesh, double timeStep, int substeps, ForkJoinPool pool) {
+    if (substeps < 1) throw new IllegalArgumentException("substeps " + substeps);
+    this.mesh = mesh; this.timeStep = timeStep; this.substeps = substeps; this.pool = pool;
+  }
+
+  /** Applies the event before the given step, counting from zero, after those already given for it. */
+  public Simulation at(int step, Event event) { events.put(step, event); return this; }
+
+  /** The number of steps run so far. */
+  public int step() { return step; }
+
+  /** Runs the given number of steps and returns how long each took in nanoseconds, its events included. */
+  public long[] run(int steps) {
+    long[] durations = new long[steps];
+    for (int i = 0; i < steps; i++, step++) {
+      long start = System.nanoTime();
+      for (Event e : events.get(step)) e.apply(mesh);
+      for (int k = 0; k < substeps; k++) mesh.physics(timeStep / substeps, pool);
+      durations[i] = System.nanoTime() - start;
+    }
+    return durations;
+  }
+
+  /** The value at the given fraction of sorted values, by nearest rank. */
+  public static long percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) throw new IllegalArgumentException("no values");
+    int rank = (int) Math.ceil(fraction * sorted.length);
+    return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+  }
+
+  private static int atLeastOne(String option, String value) {
+    int n = Integer.parseInt(value);
+    if (n < 1) throw new IllegalArgumentException(option + " must be at least 1: " + value);
+    return n;
+  }
+
+  public static void main(String[] args) throws IOException {
+    String file = null;
+    int n = 100000, steps = 300, substeps = 1, threads = 0;
+    double dt = 1000. / 30;
+    long seed = 1;
+    boolean offHeap = false, flip = false;
+    List<String[]> scripted = newArrayList();
+    for (int i = 0; i < args.length; i++) {
+      String a = args[i];
+      if (a.equals("-offheap")) { offHeap = true; continue; }
+      if (a.equals("-flip")) { flip = true; continue; }
+      if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + a);
+      String v = args[++i];
+      if (a.equals("-points")) file = v;
+      else if (a.equals("-n")) n = Integer.parseInt(v);
+      else if (a.equals("-steps")) steps = atLeastOne(a, v);
+      else if (a.equals("-dt")) dt = Double.parseDouble(v);
+      else if (a.equals("-substeps")) substeps = atLeastOne(a, v);
+      else if (a.equals("-threads")) threads = Integer.parseInt(v);
+      else if (a.equals("-seed")) seed = Long.parseLong(v);
+      else if (a.equals("-cut") || a.equals("-remove")) scripted.add(new String[]{ a, v });
+      else throw new IllegalArgumentException("unknown option " + a);
+    }
+
+    List<VertexConfig> points = file != null ? PointFile.read(Paths.get(file)) : frame(n, new Random(seed));
+    ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : null;
+    long start = System.nanoTime();
+    Mesh mesh = new Mesh(offHeap ? Mesh.Storage.OFF_HEAP : Mesh.Storage.HEAP);
+    Metrics.Counters metrics = Metrics.counters();
+    mesh.setMetrics(metrics);
+    mesh.setFlipAfterCut(flip);
+    mesh.setPoints(points, pool);
+    System.out.printf("%d points, %d triangles, built in %.1f ms%n",
+      mesh.vertices().size(), mesh.triangles().size(), (System.nanoTime() - start) / 1e6);
+
+    Simulation simulation = new Simulation(mesh, dt, substeps, pool);
+    for (String[] s : scripted) {
+      String[] at = s[1].split(":"), c = at[1].split(",");
+      Line line = aToB(xy(Double.parseDouble(c[0]), Double.parseDouble(c[1])), xy(Double.parseDouble(c[2]), Double.parseDouble(c[3])));
+      simulation.at(Integer.parseInt(at[0]), s[0].equals("-cut") ? cut(line) : remove(line));
+    }
+
+    start = System.nanoTime();
+    long[] durations = simulation.run(steps);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    Arrays.sort(durations);
+    System.out.printf("%d steps of %.2f ms in %d substeps, %s: %.1f steps/s, %.2fx real time%n",
+      steps, dt, substeps, pool == null ? "sequential" : threads + " threads", steps / seconds, steps * dt / 1000 / seconds);
+    System.out.printf("step ms: p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n", percentile(durations, .5) / 1e6,
+      percentile(durations, .9) / 1e6, percentile(durations, .99) / 1e6, durations[steps - 1] / 1e6);
+    System.out.printf("%d vertices, %d triangles at the end%n", mesh.vertices().size(), mesh.triangles().size());
+    System.out.println(metrics);
+    mesh.close();
+    if (pool != null) pool.shutdown();
+  }
+
+  /** n random points over an 800 by 600 frame, with its corners pinned. */
+  static List<VertexConfig> frame(int n, Random random) {
+    List<VertexConfig> points = newArrayList();
+    for (int i = 0; i < n; i++)
+      points.add(new VertexConfig(xy(random.nextDouble() * 800, random.nextDouble() * 600), VertexPhysics.FREE));
+    for (double[] c : new double[][]{ { -1, -1 }, { 801, -1 }, { 801, 601 }, { -1, 601 } })
+      points.add(new VertexConfig(xy(c[0], c[1]), VertexPhysics.PINNED));
+    return points;
+  }
+
+}
@@ -0,0 +1,61 @@
+package org.chris_martin.delaunay;
+
+import static org.chris_martin.delaunay.Geometry.mag;
+import static org.chris_martin.delaunay.Mesh.DAMPING;
+import static org.chris_martin.delaunay.Mesh.INERTIA;
+import static org.chris_martin.delaunay.Mesh.SPRING;
+
+/**
+ * The arithmetic of a Jacobi sweep, over batches held as parallel arrays. A vectorized
+ * kernel is compiled from src/vector where the JDK has jdk.incubator.vector, and used when
+ * that module is present at run time; otherwise the scalar kernel is. Both give the same
+ * results, operation for operation.
+ */
+abstract class SpringKernel {
+
+  /**
+   * For n springs, each pulling a vertex toward a neighbor: from the neighbor's offset dx, dy
+   * now, its offset px, py after the step, and the spring's rest length, the force fx, fy
+   * on the vertex.
+   */
+  abstract void forces(int n, double[] dx, double[] dy, double[] px, double[] py, double[] rest,
+    double[] fx, double[] fy);
+
+  /** For n vertices, their new damped velocities from their velocities and the forces on them, into ax, ay. */
+  abstract void velocities(int n, double[] vx, double[] vy, double[] ax, double[] ay);
+
+  static final SpringKernel SCALAR = new SpringKernel() {
+    void forces(int n, double[] dx, double[] dy, double[] px, double[] py, double[] rest, double[] fx, double[] fy) {
+      forces(0, n, dx, dy, px, py, rest, fx, fy); }
+    void velocities(int n, double[] vx, double[] vy, double[] ax, double[] ay) { velocities(0, n, vx, vy, ax, ay); }
+    public String toString() { return "scalar"; }
+  };
+
+  /** The vector kernel if it can be loaded, else the scalar one. */
+  static SpringKernel best() {
+    if (Boolean.getBoolean("delaunay.scalar")) return SCALAR;
+    try {
+      return (SpringKernel) Class.forName("org.chris_martin.delaunay.VectorSpringKernel").getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return SCALAR;
+    }
+  }
+
+  static void forces(int from, int to, double[] dx, double[] dy, double[] px, double[] py, double[] rest,
+      double[] fx, double[] fy) {
+    for (int i = from; i < to; i++) {
+      double stretch = mag(px[i], py[i]) - rest[i], d = mag(dx[i], dy[i]);
+      if (d == 0) { fx[i] = stretch * SPRING; fy[i] = 0; }
+      else { fx[i] = dx[i] * stretch * SPRING / d; fy[i] = dy[i] * stretch * SPRING / d; }
+    }
+  }
+
+  static void velocities(int from, int to, double[] vx, double[] vy, double[] ax, double[] ay) {
+    for (int i = from; i < to; i++) {
+      double x = (vx[i] * (INERTIA-1) + ax[i]) / INERTIA, y = (vy[i] * (INERTIA-1) + ay[i]) / INERTIA;
+      double speed = mag(x, y), damped = speed == 0 ? 0 : Math.max(0, speed - DAMPING) / speed;
+      ax[i] = x * damped; ay[i] = y * damped;
+    }
+  }
+
+}
@@ -0,0 +1,281 @@
+package org.chris_martin.delaunay;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static org.chris_martin.delaunay.Geometry.inCircle;
+import static org.chris_martin.delaunay.Geometry.orient2d;
+
+/**
+ * Delaunay triangulation of a stream of points too large to hold in memory.
+ *
+ * Points must arrive sorted by x, then by y, in as many chunks as convenient; each one
+ * is identified by its position in the stream. Because every new point lies to the right
+ * of all earlier ones, it always falls outside the current hull: it is joined to the
+ * hull edges it can see and the new triangles are legalized by edge flips. A triangle
+ * whose circumcircle lies entirely left of the newest point can never be flipped again,
+ * so it is handed to the sink and forgotten. Memory is bounded by the triangles along
+ * the sweep front, not by the size of the input.
+ *
+ * Coincident points after the first are skipped. Until three points that are not
+ * collinear have arrived, no triangles are made.
+ */
+public final class StreamingTriangulation {
+
+  /** Receives each triangle once it is final, as the stream positions of its corners in counterclockwise order. */
+  public static interface Sink {
+    void triangle(long a, long b, long c);
+  }
+
+  private final Sink sink;
+
+  public StreamingTriangulation(Sink sink) { this.sink = sink; }
+
+  private static final class Tri {
+    final long[] id = new long[3];
+    final double[] x = new double[3], y = new double[3];
+    /** n[i] is the triangle across the edge facing corner i, or null on the hull or past a final triangle. */
+    final Tri[] n = new Tri[3];
+    /** The rightmost x of the circumcircle. */
+    double right;
+    /** Position in the pending heap, or -1 once it has left it. */
+    int slot = -1;
+    boolean done;
+    /** hull[i] is the hull node whose edge faces corner i; null, or never allocated, away from the hull. */
+    HullNode[] hull;
+  }
+
+  /** A hull vertex; the hull runs counterclockwise through next, and tri is the triangle inside the edge to next. */
+  private static final class HullNode {
+    final long id; final double x, y;
+    HullNode next, prev;
+    Tri tri;
+    HullNode(long id, double x, double y) { this.id = id; this.x = x; this.y = y; }
+  }
+
+  /**
+   * Live triangles, in a binary heap by the right end of their circumcircle. It is kept by
+   * hand rather than with a PriorityQueue because a flip changes the circles of the two
+   * triangles involved, which then move within the heap.
+   */
+  private Tri[] pending = new Tri[64];
+  private double[] keys = new double[64]; // pending[i].right, kept alongside so sifting stays in one array
+
+  private long position;
+  private double lastX = Double.NEGATIVE_INFINITY, lastY = Double.NEGATIVE_INFINITY;
+  private int active;
+
+  /** Collinear points seen before the first triangle, in order. */
+  private long[] lineId = new long[4];
+  private double[] lineX = new double[4], lineY = new double[4];
+  private int lineSize;
+
+  /** The newest point, which is always on the hull. */
+  private HullNode last;
+
+  public void add(double[] x, double[] y) { add(x, y, 0, x.length); }
+
+  /** Adds points from..to of the arrays, which must continue the stream's sorted order. */
+  public void add(double[] x, double[] y, int from, int to) {
+    for (int i = from; i < to; i++) add(x[i], y[i]);
+  }
+
+  public void add(double x, double y) {
+    long id = position++;
+    if (x < lastX || (x == lastX && y < lastY))
+      throw new IllegalArgumentException("Point " + id + " is out of order: (" + x + ", " + y + ")");
+    if (x == lastX && y == lastY) return;
+    lastX = x; lastY = y;
+    while (active > 0 && keys[0] < x) finish(pending[0]);
+    if (last == null) start(id, x, y); else extend(id, x, y);
+  }
+
+  /** Hands every remaining triangle to the sink. The stream cannot be extended afterwards. */
+  public void finish() {
+    while (active > 0) finish(pending[0]);
+    last = null; lastX = lastY = Double.POSITIVE_INFINITY;
+  }
+
+  /** The number of triangles not yet handed to the sink. */
+  int active() { return active; }
+
+  private void finish(Tri t) {
+    t.done = true; unqueue(t);
+    if (t.hull != null) for (HullNode h : t.hull) if (h != null && h.tri == t) h.tri = null;
+    for (int i = 0; i < 3; i++) {
+      Tri u = t.n[i];
+      if (u != null) for (int j = 0; j < 3; j++) if (u.n[j] == t) u.n[j] = null;
+      t.n[i] = null;
+    }
+    sink.triangle(t.id[0], t.id[1], t.id[2]);
+  }
+
+  /** Collects collinear points until one leaves their line, then fans it to all of them. */
+  private void start(long id, double x, double y) {
+    if (lineSize < 2 || orient2d(lineX[0], lineY[0], lineX[1], lineY[1], x, y) == 0) {
+      if (lineSize == lineId.length) {
+        lineId = Arrays.copyOf(lineId, 2 * lineSize);
+        lineX = Arrays.copyOf(lineX, 2 * lineSize); lineY = Arrays.copyOf(lineY, 2 * lineSize);
+      }
+      lineId[lineSize] = id; lineX[lineSize] = x; lineY[lineSize] = y; lineSize++;
+      return;
+    }
+    boolean left = orient2d(lineX[0], lineY[0], lineX[1], lineY[1], x, y) > 0;
+    HullNode p = new HullNode(id, x, y);
+    HullNode[] chain = new HullNode[lineSize];
+    for (int i = 0; i < lineSize; i++) chain[i] = new HullNode(lineId[i], lineX[i], lineY[i]);
+    Tri previous = null;
+    for (int i = 0; i + 1 < lineSize; i++) {
+      HullNode a = chain[i], b = chain[i + 1];
+      Tri t = left ? tri(a, b, p) : tri(b, a, p);
+      if (previous != null) link(t, previous);
+      if (left) { a.next = b; b.prev = a; hull(a, t); } else { b.next = a; a.prev = b; hull(b, t); }
+      previous = t;
+    }
+    HullNode first = chain[0], end = chain[lineSize - 1];
+    if (left) { end.next = p; p.prev = end; hull(end, previous); p.next = first; first.prev = p; hull(p, first.tri); }
+    else { first.next = p; p.prev = first; hull(first, chain[1].tri); p.next = end; end.prev = p; hull(p, previous); }
+    last = p;
+    lineId = null; lineX = lineY = null;
+  }
+
+  private void extend(long id, double x, double y) {
+    HullNode p = new HullNode(id, x, y);
+    HullNode lo = last, hi = last;
+    while (visible(lo.prev, lo, x, y)) lo = lo.prev;
+    while (visible(hi, hi.next, x, y)) hi = hi.next;
+    assert lo != hi;
+    Deque<Tri> stack = new ArrayDeque<Tri>();
+    Tri previous = null, first = null;
+    for (HullNode a = lo; a != hi; a = a.next) {
+      Tri t = tri(a.next, a, p), across = a.tri;
+      if (across != null) { link(t, across); across.hull[facing(across, a.id)] = null; }
+      if (previous != null) link(t, previous);
+      if (first == null) first = t;
+      previous = t;
+      stack.push(t);
+    }
+    lo.next = p; p.prev = lo; hull(lo, first);
+    p.next = hi; hi.prev = p; hull(p, previous);
+    last = p;
+    legalize(stack);
+  }
+
+  private static boolean visible(HullNode a, HullNode b, double x, double y) { return orient2d(a.x, a.y, b.x, b.y, x, y) < 0; }
+
+  /** Makes t the triangle inside the hull edge from node to node.next. */
+  private static void hull(HullNode node, Tri t) {
+    node.tri = t;
+    if (t.hull == null) t.hull = new HullNode[3];
+    t.hull[facing(t, node.id)] = node;
+  }
+
+  /** The corner of t facing its edge that starts at the given point. */
+  private static int facing(Tri t, long from) {
+    for (int i = 0; i < 3; i++) if (t.id[i] == from) return (i + 2) % 3;
+    throw new IllegalStateException();
+  }
+
+  /**
+   * Flips edges facing the newest point, which is corner 0 of each triangle on the stack,
+   * until they are all locally Delaunay. The two triangles of a flip are reused in place.
+   */
+  private void legalize(Deque<Tri> stack) {
+    while (!stack.isEmpty()) {
+      Tri t = stack.pop();
+      Tri u = t.n[0];
+      if (u == null) continue;
+      int j = 0; while (u.n[j] != t) j++;
+      if (inCircle(t.x[0], t.y[0], t.x[1], t.y[1], t.x[2], t.y[2], u.x[j], u.y[j]) <= 0) continue;
+      // t = (p, q, r) and u = (s, r, q) become t = (p, q, s) and u = (p, s, r).
+      int k = (j + 1) % 3, l = (j + 2) % 3;
+      Tri qs = u.n[k], pq = t.n[2], sr = u.n[l], rp = t.n[1];
+      HullNode hqs = hull(u, k), hpq = hull(t, 2), hsr = hull(u, l), hrp = hull(t, 1);
+      long s = u.id[j]; double sx = u.x[j], sy = u.y[j];
+      long r = t.id[2]; double rx = t.x[2], ry = t.y[2];
+      corners(u, t.id[0], t.x[0], t.y[0], s, sx, sy, r, rx, ry);
+      corners(t, t.id[0], t.x[0], t.y[0], t.id[1], t.x[1], t.y[1], s, sx, sy);
+      t.n[0] = qs; t.n[1] = u; t.n[2] = pq;
+      u.n[0] = sr; u.n[1] = rp; u.n[2] = t;
+      replace(qs, u, t); replace(rp, t, u);
+      if (t.hull != null || u.hull != null) {
+        if (t.hull != null) Arrays.fill(t.hull, null);
+        if (u.hull != null) Arrays.fill(u.hull, null);
+        if (hqs != null) hull(hqs, t);
+        if (hpq != null) hull(hpq, t);
+        if (hsr != null) hull(hsr, u);
+        if (hrp != null) hull(hrp, u);
+      }
+      requeue(t); requeue(u);
+      stack.push(t); stack.push(u);
+    }
+  }
+
+  private static HullNode hull(Tri t, int i) { return t.hull == null ? null : t.hull[i]; }
+
+  private static void replace(Tri neighbor, Tri from, Tri to) {
+    if (neighbor != null) for (int i = 0; i < 3; i++) if (neighbor.n[i] == from) neighbor.n[i] = to;
+  }
+
+  private static void link(Tri a, Tri b) {
+    for (int i = 0; i < 3; i++) for (int j = 0; j < 3; j++)
+      if (a.id[(i + 1) % 3] == b.id[(j + 2) % 3] && a.id[(i + 2) % 3] == b.id[(j + 1) % 3]) { a.n[i] = b; b.n[j] = a; }
+  }
+
+  /** A counterclockwise triangle with c at corner 0, queued to be handed to the sink once the sweep has passed its circumcircle. */
+  private Tri tri(HullNode a, HullNode b, HullNode c) {
+    Tri t = new Tri();
+    corners(t, c.id, c.x, c.y, a.id, a.x, a.y, b.id, b.x, b.y);
+    queue(t);
+    return t;
+  }
+
+  private static void corners(Tri t, long a, double ax, double ay, long b, double bx, double by, long c, double cx, double cy) {
+    t.id[0] = a; t.id[1] = b; t.id[2] = c;
+    t.x[0] = ax; t.x[1] = bx; t.x[2] = cx; t.y[0] = ay; t.y[1] = by; t.y[2] = cy;
+    double bdx = bx - ax, bdy = by - ay, cdx = cx - ax, cdy = cy - ay;
+    double d = 2 * (bdx * cdy - bdy * cdx), b2 = bdx * bdx + bdy * bdy, c2 = cdx * cdx + cdy * cdy;
+    double ux = (cdy * b2 - bdy * c2) / d, uy = (bdx * c2 - cdx * b2) / d;
+    t.right = ax + ux + Math.sqrt(ux * ux + uy * uy);
+    if (Double.isNaN(t.right)) t.right = Double.POSITIVE_INFINITY;
+  }
+
+  private void queue(Tri t) {
+    if (active == pending.length) { pending = Arrays.copyOf(pending, 2 * active); keys = Arrays.copyOf(keys, 2 * active); }
+    up(active++, t);
+  }
+
+  /** Moves t within the heap after its circle has changed. */
+  private void requeue(Tri t) {
+    int i = t.slot;
+    if (i > 0 && keys[(i - 1) / 2] > t.right) up(i, t); else down(i, t);
+  }
+
+  private void unqueue(Tri t) {
+    int i = t.slot; t.slot = -1;
+    Tri moved = pending[--active]; pending[active] = null;
+    if (moved == t) return;
+    if (i > 0 && keys[(i - 1) / 2] > moved.right) up(i, moved); else down(i, moved);
+  }
+
+  /** Puts t at i, or at one of i's ancestors, moving the ones it passes down. */
+  private void up(int i, Tri t) {
+    double key = t.right;
+    while (i > 0 && keys[(i - 1) / 2] > key) { int parent = (i - 1) / 2; set(i, pending[parent], keys[parent]); i = parent; }
+    set(i, t, key);
+  }
+
+  private void down(int i, Tri t) {
+    double key = t.right;
+    for (int c = 2 * i + 1; c < active; i = c, c = 2 * i + 1) {
+      if (c + 1 < active && keys[c + 1] < keys[c]) c++;
+      if (keys[c] >= key) break;
+      set(i, pending[c], keys[c]);
+    }
+    set(i, t, key);
+  }
+
+  private void set(int i, Tri t, double key) { pending[i] = t; keys[i] = key; t.slot = i; }
+
+}
@@ -0,0 +1,333 @@
+package org.chris_martin.delaunay;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Delaunay triangulation by Guibas and Stolfi's divide and conquer, O(n log n).
+ *
+ * The working quad-edge structure lives in primitive arrays. The result is a corner
+ * table: corner c belongs to triangle c/3, each triangle's corners are in
+ * counterclockwise order, and opposite[c] is the corner across the edge facing c.
+ *
+ * Given a ForkJoinPool, the points are cut into vertical strips that are triangulated
+ * in parallel, and each pair of neighboring strips is stitched along its seam by the
+ * same merge step the sequential recursion uses.
+ */
+final class Triangulation {
+
+  /** Strips with at most this many points are triangulated by a single thread. */
+  static final int PARALLEL_CUTOFF = 1 << 13;
+
+  /** The most distinct points that fit, at 12 int quad-edge slots each, in an int-indexed array. */
+  static final int MAX_POINTS = Integer.MAX_VALUE / 12;
+
+  /** Index of the point at each corner. */
+  final int[] vertex;
+
+  /** The corner across the edge facing each corner, or -1 if that edge is on the hull. */
+  final int[] opposite;
+
+  private Triangulation(int[] vertex, int[] opposite) { this.vertex = vertex; this.opposite = opposite; }
+
+  int size() { return vertex.length / 3; }
+
+  static int next(int c) { return c % 3 == 2 ? c - 2 : c + 1; }
+  static int prev(int c) { return c % 3 == 0 ? c + 2 : c - 1; }
+
+  /** The next corner counterclockwise around the same point, or -1 at the hull. */
+  int swing(int c) { int o = opposite[next(c)]; return o < 0 ? -1 : next(o); }
+
+  /** The next corner clockwise around the same point, or -1 at the hull. */
+  int unswing(int c) { int o = opposite[prev(c)]; return o < 0 ? -1 : prev(o); }
+
+  /** Coincident points after the first are left out; collinear input yields no triangles. */
+  static Triangulation of(double[] x, double[] y) { return of(x, y, null); }
+
+  /**
+   * Same as of(x, y), run on the given pool; a null pool means the calling thread only.
+   *
+   * @throws IllegalArgumentException if there are more than MAX_POINTS distinct points
+   */
+  static Triangulation of(double[] x, double[] y, ForkJoinPool pool) {
+    if (x.length != y.length) throw new IllegalArgumentException();
+    return new Builder(x, y, pool).build();
+  }
+
+  /** Sorts point indices by x, then by y. */
+  static void sort(int[] a, double[] x, double[] y) { sort(a, x, y, null); }
+
+  static void sort(final int[] a, final double[] x, final double[] y, ForkJoinPool pool) {
+    final int[] tmp = new int[a.length];
+    if (pool == null) { sort(a, tmp, 0, a.length, x, y); return; }
+    class Sort extends RecursiveAction {
+      private static final long serialVersionUID = 1;
+      final int lo, hi; Sort(int lo, int hi) { this.lo = lo; this.hi = hi; }
+      protected void compute() {
+        if (hi - lo <= PARALLEL_CUTOFF) { sort(a, tmp, lo, hi, x, y); return; }
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Sort(lo, mid), new Sort(mid, hi));
+        merge(a, tmp, lo, mid, hi, x, y);
+        System.arraycopy(tmp, lo, a, lo, hi - lo);
+      }
+    }
+    pool.invoke(new Sort(0, a.length));
+  }
+
+  /** Bottom-up merge sort of a[lo..hi), using the same range of tmp as scratch. */
+  private static void sort(int[] a, int[] tmp, int lo, int hi, double[] x, double[] y) {
+    int[] src = a, dst = tmp;
+    for (int width = 1; width < hi - lo; width *= 2) {
+      for (int i = lo; i < hi; i += 2 * width) merge(src, dst, i, Math.min(i + width, hi), Math.min(i + 2 * width, hi), x, y);
+      int[] t = src; src = dst; dst = t;
+    }
+    if (src != a) System.arraycopy(src, lo, a, lo, hi - lo);
+  }
+
+  static void merge(int[] src, int[] dst, int lo, int mid, int hi, double[] x, double[] y) {
+    int i = lo, j = mid, k = lo;
+    while (i < mid && j < hi) dst[k++] = compare(src[j], src[i], x, y) < 0 ? src[j++] : src[i++];
+    while (i < mid) dst[k++] = src[i++];
+    while (j < hi) dst[k++] = src[j++];
+  }
+
+  static int compare(int i, int j, double[] x, double[] y) {
+    int c = Double.compare(x[i], x[j]); return c != 0 ? c : Double.compare(y[i], y[j]); }
+
+  /**
+   * Quad-edge slots owned by one subproblem: a free list threaded through onext, plus the
+   * not yet used range [next, end). A subproblem over k points never has more than 3k
+   * live edges, because every intermediate state of the merge is a planar graph, so the
+   * 12k slots it is given are always enough.
+   */
+  private static final class Slots {
+    int free = -1, last = -1, next, end;
+    Slots(int from, int end) { this.next = from; this.end = end; }
+  }
+
+  private static final class Builder {
+
+    final ForkJoinPool pool;
+
+    /** Points in sorted order without duplicates, and each one's index in the input. */
+    final double[] x, y; final int[] index;
+
+    /*
+     * Quad-edge q occupies indices q..q+3, one per rotation. Rotations 0 and 2 are the
+     * two directions of the primal edge and hold its origin point; slot q+1 of org
+     * is 1 for live edges.
+     */
+    final int[] onext, org;
+
+    Builder(double[] xs, double[] ys, ForkJoinPool pool) {
+      this.pool = pool;
+      int n = xs.length;
+      int[] s = new int[n];
+      for (int i = 0; i < n; i++) s[i] = i;
+      sort(s, xs, ys, pool);
+      int m = 0;
+      for (int i = 0; i < n; i++) if (m == 0 || compare(s[m-1], s[i], xs, ys) != 0) s[m++] = s[i];
+      if (m > MAX_POINTS) throw new IllegalArgumentException(m + " distinct points, more than the " + MAX_POINTS + " that can be triangulated");
+      index = Arrays.copyOf(s, m); x = new double[m]; y = new double[m];
+      for (int i = 0; i < m; i++) { x[i] = xs[index[i]]; y[i] = ys[index[i]]; }
+      onext = new int[12 * m]; org = new int[12 * m];
+    }
+
+    static int rot(int e) { return (e & ~3) | ((e + 1) & 3); }
+    static int rotInv(int e) { return (e & ~3) | ((e + 3) & 3); }
+    static int sym(int e) { return e ^ 2; }
+    int oprev(int e) { return rot(onext[rot(e)]); }
+    int lnext(int e) { return rot(onext[rotInv(e)]); }
+    int rprev(int e) { return onext[sym(e)]; }
+    int dest(int e) { return org[sym(e)]; }
+
+    int makeEdge(int a, int b, Slots s) {
+      int q;
+      if (s.free >= 0) { q = s.free; s.free = onext[q]; if (s.free < 0) s.last = -1; }
+      else { q = s.next; s.next += 4; }
+      onext[q] = q; onext[q+1] = q+3; onext[q+2] = q+2; onext[q+3] = q+1;
+      org[q] = a; org[q+1] = 1; org[q+2] = b;
+      return q;
+    }
+
+    void release(int q, Slots s) {
+      org[q+1] = 0; onext[q] = s.free; s.free = q; if (s.last < 0) s.last = q; }
+
+    /** Hands the slots of the right-hand neighbor to s, which is then the merged subproblem's. */
+    void absorb(Slots s, Slots right) {
+      for (int q = s.next; q < s.end; q += 4) release(q, s);
+      if (right.free >= 0) {
+        if (s.free < 0) s.free = right.free; else onext[s.last] = right.free;
+        s.last = right.last;
+      }
+      s.next = right.next; s.end = right.end;
+    }
+
+    void splice(int a, int b) {
+      int alpha = rot(onext[a]), beta = rot(onext[b]);
+      int t = onext[a]; onext[a] = onext[b]; onext[b] = t;
+      t = onext[alpha]; onext[alpha] = onext[beta]; onext[beta] = t;
+    }
+
+    int connect(int a, int b, Slots s) {
+      int e = makeEdge(dest(a), org[b], s);
+      splice(e, lnext(a)); splice(sym(e), b);
+      return e;
+    }
+
+    void deleteEdge(int e, Slots s) {
+      splice(e, oprev(e)); splice(sym(e), oprev(sym(e)));
+      release(e & ~3, s);
+    }
+
+    boolean ccw(int a, int b, int c) { return Geometry.orient2d(x[a], y[a], x[b], y[b], x[c], y[c]) > 0; }
+
+    /** Whether d is inside the circle through a, b, c (counterclockwise). */
+    boolean inCircle(int a, int b, int c, int d) {
+      return Geometry.inCircle(x[a], y[a], x[b], y[b], x[c], y[c], x[d], y[d]) > 0; }
+
+    boolean rightOf(int p, int e) { return ccw(p, dest(e), org[e]); }
+    boolean leftOf(int p, int e) { return ccw(p, org[e], dest(e)); }
+
+    Triangulation build() {
+      int m = x.length;
+      if (m >= 2) {
+        if (pool == null || m <= PARALLEL_CUTOFF) divide(0, m, new Slots(0, 12 * m));
+        else pool.invoke(new Strip(0, m));
+      }
+      return faces();
+    }
+
+    /** Triangulates a strip of the sorted points, forking while the strip is large. */
+    final class Strip extends RecursiveAction {
+      private static final long serialVersionUID = 1;
+      final int lo, hi; long hull; Slots slots;
+      Strip(int lo, int hi) { this.lo = lo; this.hi = hi; }
+      protected void compute() {
+        if (hi - lo <= PARALLEL_CUTOFF) { slots = new Slots(12 * lo, 12 * hi); hull = divide(lo, hi, slots); return; }
+        int mid = lo + (hi - lo) / 2;
+        Strip left = new Strip(lo, mid), right = new Strip(mid, hi);
+        invokeAll(left, right);
+        absorb(slots = left.slots, right.slots);
+        hull = merge(first(left.hull), second(left.hull), first(right.hull), second(right.hull), slots);
+      }
+    }
+
+    /** Triangulates the sorted points lo..hi-1 and returns its two outermost hull edges. */
+    long divide(int lo, int hi, Slots s) {
+      int n = hi - lo;
+      if (n == 2) {
+        int a = makeEdge(lo, lo+1, s);
+        return pair(a, sym(a));
+      }
+      if (n == 3) {
+        int p1 = lo, p2 = lo+1, p3 = lo+2;
+        int a = makeEdge(p1, p2, s), b = makeEdge(p2, p3, s);
+        splice(sym(a), b);
+        if (ccw(p1, p2, p3)) { connect(b, a, s); return pair(a, sym(b)); }
+        if (ccw(p1, p3, p2)) { int c = connect(b, a, s); return pair(sym(c), c); }
+        return pair(a, sym(b));
+      }
+      int mid = lo + n / 2;
+      long left = divide(lo, mid, s), right = divide(mid, hi, s);
+      return merge(first(left), second(left), first(right), second(right), s);
+    }
+
+    long merge(int ldo, int ldi, int rdi, int rdo, Slots s) {
+      while (true) {
+        if (leftOf(org[rdi], ldi)) ldi = lnext(ldi);
+        else if (rightOf(org[ldi], rdi)) rdi = rprev(rdi);
+        else break;
+      }
+      int basel = connect(sym(rdi), ldi, s);
+      if (org[ldi] == org[ldo]) ldo = sym(basel);
+      if (org[rdi] == org[rdo]) rdo = basel;
+      while (true) {
+        int lcand = onext[sym(basel)];
+        if (rightOf(dest(lcand), basel)) {
+          while (inCircle(dest(basel), org[basel], dest(lcand), dest(onext[lcand]))) {
+            int t = onext[lcand]; deleteEdge(lcand, s); lcand = t; }
+        }
+        int rcand = oprev(basel);
+        if (rightOf(dest(rcand), basel)) {
+          while (inCircle(dest(basel), org[basel], dest(rcand), dest(oprev(rcand)))) {
+            int t = oprev(rcand); deleteEdge(rcand, s); rcand = t; }
+        }
+        boolean lvalid = rightOf(dest(lcand), basel), rvalid = rightOf(dest(rcand), basel);
+        if (!lvalid && !rvalid) break;
+        if (!lvalid || (rvalid && inCircle(dest(lcand), org[lcand], org[rcand], dest(rcand))))
+          basel = connect(rcand, sym(basel), s);
+        else
+          basel = connect(sym(basel), sym(lcand), s);
+      }
+      return pair(ldo, rdo);
+    }
+
+    static long pair(int a, int b) { return ((long) a << 32) | (b & 0xffffffffL); }
+    static int first(long pair) { return (int) (pair >>> 32); }
+    static int second(long pair) { return (int) pair; }
+
+    /** Whether e is the lowest-numbered edge of a counterclockwise triangular face. */
+    boolean ownsTriangle(int e) {
+      int e1 = lnext(e), e2 = lnext(e1);
+      return e < e1 && e < e2 && lnext(e2) == e && ccw(org[e], org[e1], org[e2]); }
+
+    /** Collects every counterclockwise triangular face into a corner table. */
+    Triangulation faces() {
+      final int quads = onext.length / 4;
+      final int[] cornerOf = new int[quads * 2];
+      int slices = pool == null ? 1 : Math.max(1, Math.min(quads / 1024, 4 * pool.getParallelism()));
+      final int[] offset = new int[slices + 1];
+      forEachSlice(quads, slices, new Slice() { public void run(int slice, int lo, int hi) {
+        int n = 0;
+        for (int q = 4 * lo; q < 4 * hi; q += 4) if (org[q+1] == 1) {
+          if (ownsTriangle(q)) n++;
+          if (ownsTriangle(q+2)) n++;
+        }
+        offset[slice + 1] = n;
+      }});
+      for (int i = 0; i < slices; i++) offset[i + 1] += offset[i];
+      final int corners = 3 * offset[slices];
+      final int[] vertex = new int[corners], edgeOf = new int[corners], opposite = new int[corners];
+      Arrays.fill(cornerOf, -1);
+      forEachSlice(quads, slices, new Slice() { public void run(int slice, int lo, int hi) {
+        int c = 3 * offset[slice];
+        for (int q = 4 * lo; q < 4 * hi; q += 4) if (org[q+1] == 1) {
+          for (int e = q; e <= q + 2; e += 2) if (ownsTriangle(e)) {
+            for (int k = 0, d = e; k < 3; k++, d = lnext(d)) {
+              cornerOf[d >> 1] = c; vertex[c] = index[org[d]]; edgeOf[c] = d; c++; }
+          }
+        }
+      }});
+      forEachSlice(corners, slices, new Slice() { public void run(int slice, int lo, int hi) {
+        for (int c = lo; c < hi; c++) {
+          int k = cornerOf[sym(edgeOf[next(c)]) >> 1];
+          opposite[c] = k < 0 ? -1 : prev(k);
+        }
+      }});
+      return new Triangulation(vertex, opposite);
+    }
+
+    /** Runs body over [0, n) cut into the given number of slices, on the pool if there is one. */
+    void forEachSlice(final int n, final int slices, final Slice body) {
+      if (slices == 1) { body.run(0, 0, n); return; }
+      final int step = (n + slices - 1) / slices;
+      List<RecursiveAction> tasks = newArrayList();
+      for (int i = 0; i < slices; i++) {
+        final int slice = i;
+        tasks.add(new RecursiveAction() { protected void compute() {
+          body.run(slice, Math.min(n, slice * step), Math.min(n, (slice + 1) * step)); }});
+      }
+      for (RecursiveAction t : tasks) pool.execute(t);
+      for (RecursiveAction t : tasks) t.join();
+    }
+
+  }
+
+  private interface Slice { void run(int slice, int lo, int hi); }
+
+}
@@ -2,7 +2,12 @@ package org.chris_martin.delaunay;
 
 import org.testng.annotations.Test;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.lang.Math.*;
 import static java.util.Arrays.asList;
@@ -10,6 +15,7 @@ import static org.chris_martin.delaunay.Geometry.*;
 import static org.chris_martin.delaunay.Geometry.Side.LEFT;
 import static org.chris_martin.delaunay.Geometry.Side.RIGHT;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class GeometryTest {
 
@@ -96,4 +102,79 @@ public class GeometryTest {
   @Test public void testBulge5() { Line l = aToB(xy(660, 28), xy(707, 113));
     assertLess(0, l.bulge(xy(119, 563))); }
 
+  @Test public void testConvexHullSquare() {
+    Vec a = xy(0, 0), b = xy(2, 0), c = xy(2, 2), d = xy(0, 2);
+    assertEquals(convexHull(asList(xy(1, 1), c, a, xy(1, 0), d, xy(0, 2), b, xy(2, 1))), asList(a, b, c, d)); }
+
+  @Test public void testConvexHullRandom() {
+    Random random = new Random(6);
+    List<Vec> ps = new ArrayList<Vec>();
+    for (int i = 0; i < 5 * Triangulation.PARALLEL_CUTOFF; i++) ps.add(xy(random.nextGaussian(), random.nextGaussian()));
+    List<Vec> hull = convexHull(ps);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    assertEquals(convexHull(ps, pool), hull);
+    pool.shutdown();
+    for (int i = 0; i < hull.size(); i++) {
+      Vec a = hull.get(i), b = hull.get((i + 1) % hull.size());
+      for (Vec p : ps) assertLess(-epsilon, (b.x()-a.x())*(p.y()-a.y()) - (b.y()-a.y())*(p.x()-a.x()));
+    }
+  }
+
+  @Test public void testOrient2dNearlyCollinear() {
+    // Points just off the line y = x, where the plain formula often gets the sign wrong.
+    Random random = new Random(7);
+    for (int i = 0; i < 10000; i++) {
+      double ax = .5 + Math.ulp(.5) * random.nextInt(64), ay = .5 + Math.ulp(.5) * random.nextInt(64);
+      BigDecimal x = new BigDecimal(ax), y = new BigDecimal(ay), b = new BigDecimal(12), c = new BigDecimal(24);
+      BigDecimal exact = b.subtract(x).multiply(c.subtract(y)).subtract(b.subtract(y).multiply(c.subtract(x)));
+      assertEquals(signum(orient2d(ax, ay, 12, 12, 24, 24)), (double) exact.signum());
+    }
+    assertEquals(orient2d(xy(0, 0), xy(1, 0), xy(0, 1)), 1.);
+  }
+
+  @Test public void testInCircleCocircular() {
+    assertEquals(inCircle(xy(0, 0), xy(1, 0), xy(1, 1), xy(0, 1)), 0.);
+    double r = 1e-3, c = 1e5;
+    assertEquals(inCircle(c - r, c, c, c - r, c + r, c, c, c + r), 0.);
+    assertEquals(signum(inCircle(c - r, c, c, c - r, c + r, c, c, c + r - Math.ulp(c))), 1.);
+    assertEquals(signum(inCircle(c - r, c, c, c - r, c + r, c, c, c + r + Math.ulp(c))), -1.);
+  }
+
+  @Test public void testPredicatesNotFinite() {
+    double inf = Double.POSITIVE_INFINITY, nan = Double.NaN;
+    assertTrue(Double.isNaN(orient2d(inf, inf, 1, 2, 0, 0)));
+    assertTrue(Double.isNaN(orient2d(nan, 0, 1, 0, 0, 1)));
+    assertTrue(Double.isNaN(inCircle(inf, 0, 1, 0, 0, 1, 0, 0)));
+    assertTrue(Double.isNaN(inCircle(0, 0, 1, 0, 1, 1, nan, nan)));
+  }
+
+  /** Within epsilon either way, where approx passes anything less than expected. */
+  void assertNear(Vec actual, Vec expected) {
+    assertEquals(actual.x(), expected.x(), epsilon, "x of " + actual);
+    assertEquals(actual.y(), expected.y(), epsilon, "y of " + actual); }
+
+  @Test public void testVecMagAndRotCartesian() {
+    assertNear(xy(3, 4).mag(10), xy(6, 8));
+    assertNear(xy(3, 4).mag(-5), xy(-3, -4));
+    assertNear(xy(0, -2).unit(), xy(0, -1));
+    assertNear(xy(1, 2).rot(PI / 2), xy(-2, 1));
+    assertNear(angleVec(PI / 4, 2).rot(PI / 4), xy(0, 2));
+    assertEquals(xy(2, 3).cross(xy(5, 7)), xy(2, 3).dot(xy(5, 7).rot90()), epsilon);
+  }
+
+  @Test public void testCoordinateKernel() {
+    Random random = new Random(4);
+    for (int i = 0; i < 1000; i++) {
+      Vec a = xy(random.nextDouble(), random.nextDouble()), b = xy(random.nextDouble(), random.nextDouble()),
+        c = xy(random.nextDouble(), random.nextDouble()), d = xy(random.nextDouble(), random.nextDouble());
+      Line ab = aToB(a, b), cd = aToB(c, d);
+      assertEquals(overlap(a.x(), a.y(), b.x(), b.y(), c.x(), c.y(), d.x(), d.y()),
+        ab.side(c) != ab.side(d) && cd.side(a) != cd.side(b));
+      double t = crossing(a.x(), a.y(), b.x(), b.y(), c.x(), c.y(), d.x(), d.y());
+      Vec p = intersect(ab, cd);
+      if (abs(p.x()) < 1e3 && abs(p.y()) < 1e3) assertEquals(a.add(b.sub(a).mult(t)).sub(p).mag(), 0, 1e-6);
+      assertEquals(bulge(a.x(), a.y(), b.x(), b.y(), c.x(), c.y()), ab.bulge(c));
+    }
+  }
+
 }
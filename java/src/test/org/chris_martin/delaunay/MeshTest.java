@@ -0,0 +1,570 @@
+package org.chris_martin.delaunay;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.chris_martin.delaunay.Mesh.*;
+
+import static java.util.Arrays.asList;
+import static org.chris_martin.delaunay.Geometry.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static org.testng.collections.Lists.newArrayList;
+
+public class MeshTest {
+
+  static List<VertexConfig> randomPoints(int n, long seed) {
+    Random random = new Random(seed);
+    List<VertexConfig> ps = newArrayList();
+    for (int i = 0; i < n; i++)
+      ps.add(new VertexConfig(xy(random.nextDouble() * 800, random.nextDouble() * 600), VertexPhysics.FREE));
+    return ps;
+  }
+
+  static List<VertexConfig> gridPoints(int w, int h) {
+    List<VertexConfig> ps = newArrayList();
+    for (int i = 0; i < w; i++) for (int j = 0; j < h; j++)
+      ps.add(new VertexConfig(xy(10 * i, 10 * j), VertexPhysics.FREE));
+    return ps;
+  }
+
+  static double orient(Vec a, Vec b, Vec c) {
+    return (b.x()-a.x())*(c.y()-a.y()) - (b.y()-a.y())*(c.x()-a.x()); }
+
+  /** Every triangle is counterclockwise and no vertex lies strictly inside its circumcircle. */
+  static void assertDelaunay(Mesh mesh) {
+    for (Triangle t : mesh.triangles()) {
+      Vec a = t.a().vertex().loc(), b = t.b().vertex().loc(), c = t.c().vertex().loc();
+      assertTrue(orient(a, b, c) > 0, "clockwise triangle " + t.id());
+      Circle cc = circle(a, b, c);
+      for (Vertex v : mesh.vertices())
+        assertTrue(v.loc().sub(cc.center()).mag() > cc.radius() * (1 - 1e-9), "vertex " + v.id() + " in circle");
+    }
+  }
+
+  /** Every corner is reached by swinging around its vertex, and swings are mutual. */
+  static void assertSwings(Mesh mesh) {
+    int corners = 0;
+    for (Vertex v : mesh.vertices()) {
+      int supers = 0;
+      for (Corner c : v.corners()) {
+        corners++;
+        assertEquals(c.vertex(), v);
+        assertEquals(c.swing().next().corner().swing().prev().corner(), c);
+        assertEquals(c.swing().next().isSuper(), c.swing().next().corner().swing().prev().isSuper());
+        if (c.swing().next().isSuper()) supers++;
+      }
+      assertTrue(supers <= 1);
+    }
+    assertEquals(corners, 3 * mesh.triangles().size());
+  }
+
+  @Test public void testRandomDelaunay() {
+    Mesh mesh = new Mesh(randomPoints(300, 1));
+    assertEquals(mesh.vertices().size(), 300);
+    assertDelaunay(mesh);
+    assertSwings(mesh);
+  }
+
+  @Test public void testGridDelaunay() {
+    Mesh mesh = new Mesh(gridPoints(12, 9));
+    assertEquals(mesh.triangles().size(), 2 * 11 * 8);
+    assertDelaunay(mesh);
+    assertSwings(mesh);
+  }
+
+  @Test public void testDuplicatePointsDropped() {
+    List<VertexConfig> ps = randomPoints(50, 2);
+    ps.addAll(randomPoints(10, 2));
+    Mesh mesh = new Mesh(ps);
+    assertEquals(mesh.vertices().size(), 50);
+    assertSwings(mesh);
+  }
+
+  static List<VertexConfig> framedPoints(int n, long seed) {
+    List<VertexConfig> ps = randomPoints(n, seed);
+    for (Vec corner : new Vec[]{ xy(-1, -1), xy(801, -1), xy(801, 601), xy(-1, 601) })
+      ps.add(new VertexConfig(corner, VertexPhysics.PINNED));
+    return ps;
+  }
+
+  @Test public void testInsert() {
+    Mesh mesh = new Mesh(framedPoints(100, 5));
+    for (VertexConfig p : randomPoints(200, 6)) mesh.insert(p);
+    assertEquals(mesh.vertices().size(), 304);
+    List<VertexConfig> all = newArrayList();
+    for (Vertex v : mesh.vertices()) all.add(new VertexConfig(v.loc(), VertexPhysics.FREE));
+    assertEquals(mesh.triangles().size(), new Mesh(all).triangles().size());
+    assertDelaunay(mesh);
+    assertSwings(mesh);
+  }
+
+  @Test public void testInsertBulk() {
+    Mesh mesh = new Mesh(framedPoints(10, 7));
+    List<Vertex> added = mesh.insert(randomPoints(500, 8));
+    assertEquals(added.size(), 500);
+    assertDelaunay(mesh);
+    assertSwings(mesh);
+  }
+
+  @Test public void testInsertOnEdgeAndVertex() {
+    Mesh mesh = new Mesh(gridPoints(4, 4));
+    Vertex v = mesh.insert(new VertexConfig(xy(15, 10), VertexPhysics.FREE));
+    assertEquals(mesh.insert(new VertexConfig(xy(15, 10), VertexPhysics.FREE)), v);
+    mesh.insert(new VertexConfig(xy(0, 5), VertexPhysics.FREE));
+    assertEquals(mesh.vertices().size(), 18);
+    assertEquals(mesh.triangles().size(), 2 * 9 + 3);
+    assertDelaunay(mesh);
+    assertSwings(mesh);
+  }
+
+  /** Inserting next to a slit splits and flips without relinking across it. */
+  @Test public void testInsertAfterCut() {
+    Mesh mesh = new Mesh(framedPoints(300, 28));
+    mesh.cut(aToB(xy(100, 300), xy(700, 320)));
+    mesh.stopCutting();
+    List<VertexConfig> near = newArrayList();
+    Random random = new Random(29);
+    for (int i = 0; i < 200; i++) near.add(new VertexConfig(xy(120 + 560 * random.nextDouble(), 290 + 40 * random.nextDouble()), VertexPhysics.FREE));
+    int before = mesh.triangles().size();
+    mesh.insert(near);
+    assertEquals(mesh.triangles().size(), before + 2 * near.size());
+    assertSwings(mesh);
+    for (Vertex v : mesh.vertices()) for (Corner c : v.corners())
+      if (!c.swing().next().isSuper()) assertEquals(c.swing().next().corner().next().vertex(), c.prev().vertex());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInsertOutside() {
+    new Mesh(gridPoints(4, 4)).insert(new VertexConfig(xy(-5, 5), VertexPhysics.FREE));
+  }
+
+  static List<VertexConfig> configs(Mesh mesh) {
+    List<VertexConfig> ps = newArrayList();
+    for (Vertex v : mesh.vertices()) ps.add(new VertexConfig(v.loc(), VertexPhysics.FREE));
+    return ps;
+  }
+
+  @Test public void testRemoveVertex() {
+    Mesh mesh = new Mesh(randomPoints(300, 9));
+    List<Vertex> vs = newArrayList(mesh.vertices().toArray(new Vertex[0]));
+    for (int i = 0; i < 150; i++) {
+      mesh.removeVertex(vs.get(2 * i));
+      assertSwings(mesh);
+    }
+    assertEquals(mesh.vertices().size(), 150);
+    assertDelaunay(mesh);
+    assertEquals(mesh.triangles().size(), new Mesh(configs(mesh)).triangles().size());
+  }
+
+  @Test public void testRemoveVertexAfterCut() {
+    Mesh mesh = new Mesh(randomPoints(200, 10));
+    mesh.cut(aToB(xy(100, 300), xy(700, 320)));
+    mesh.stopCutting();
+    List<Vertex> vs = newArrayList(mesh.vertices().toArray(new Vertex[0]));
+    for (int i = 0; i < vs.size(); i += 3) {
+      mesh.removeVertex(vs.get(i));
+      assertSwings(mesh);
+    }
+  }
+
+  @Test public void testCutAndRemove() {
+    Mesh mesh = new Mesh(randomPoints(200, 3));
+    mesh.cut(aToB(xy(100, 300), xy(700, 320)));
+    mesh.stopCutting();
+    assertSwings(mesh);
+    mesh.remove(aToB(xy(400, 0), xy(410, 600)));
+    assertSwings(mesh);
+    mesh.physics(1000. / 30);
+  }
+
+  static int crossings(Mesh mesh, Line cut) {
+    int n = 0;
+    for (Edge e : mesh.edges()) if (overlap(e.line(), cut)) n++;
+    return n;
+  }
+
+  @Test public void testCutSplitsCrossedEdges() {
+    Mesh mesh = new Mesh(randomPoints(300, 12));
+    Line cut = aToB(xy(100, 300), xy(700, 320));
+    int crossed = crossings(mesh, cut), before = mesh.triangles().size();
+    mesh.cut(cut);
+    mesh.stopCutting();
+    assertEquals(mesh.triangles().size() - before, 2 * crossed);
+    assertSwings(mesh);
+  }
+
+  @Test public void testCutFromOutside() {
+    Mesh mesh = new Mesh(randomPoints(300, 13));
+    Line cut = aToB(xy(-50, 250), xy(900, 280));
+    int crossed = crossings(mesh, cut), before = mesh.triangles().size();
+    mesh.cut(cut);
+    mesh.stopCutting();
+    assertEquals(mesh.triangles().size() - before, 2 * crossed - 2);
+    assertSwings(mesh);
+  }
+
+  /** The number of edges, not on the boundary, with the far vertex across them inside the circle of a triangle. */
+  static int illegalEdges(Mesh mesh) {
+    int n = 0;
+    for (Triangle t : mesh.triangles()) for (Corner p : t.corners()) {
+      Swing across = p.next().swing().prev();
+      if (across.isSuper()) continue;
+      Vec d = across.corner().next().vertex().loc();
+      if (inCircle(p.vertex().loc(), p.next().vertex().loc(), p.prev().vertex().loc(), d) > 0) n++;
+    }
+    return n;
+  }
+
+  @Test public void testFlipAfterCut() {
+    Line cut = aToB(xy(100, 300), xy(700, 320));
+    Mesh plain = new Mesh(randomPoints(300, 12));
+    plain.cut(cut);
+    plain.stopCutting();
+    assertTrue(illegalEdges(plain) > 0);
+
+    Mesh mesh = new Mesh(randomPoints(300, 12));
+    mesh.setFlipAfterCut(true);
+    int crossed = crossings(mesh, cut), before = mesh.triangles().size();
+    mesh.cut(cut);
+    mesh.stopCutting();
+    assertEquals(mesh.triangles().size() - before, 2 * crossed);
+    assertEquals(illegalEdges(mesh), 0);
+    assertSwings(mesh);
+  }
+
+  @Test public void testFlipWhileDragging() {
+    Mesh mesh = new Mesh(randomPoints(500, 15));
+    mesh.setFlipAfterCut(true);
+    Vec p = xy(80, 200);
+    for (int i = 1; i <= 12; i++) {
+      Vec q = xy(80 + 50 * i, 200 + 150 * Math.sin(i / 2.));
+      mesh.cut(aToB(p, q));
+      p = q;
+    }
+    mesh.stopCutting();
+    assertEquals(illegalEdges(mesh), 0);
+    assertSwings(mesh);
+  }
+
+  @Test public void testMetrics() {
+    Metrics.Counters metrics = Metrics.counters();
+    Mesh mesh = new Mesh();
+    mesh.setMetrics(metrics);
+    mesh.setPoints(randomPoints(300, 14));
+    int triangles = mesh.triangles().size(), edges = mesh.edges().size();
+    assertEquals(metrics.triangulations(), 1);
+    assertEquals(metrics.trianglesCreated(), triangles);
+    assertEquals(metrics.springLengthHitRate(), (3. * triangles - edges) / (3 * triangles), 1e-12);
+
+    Line cut = aToB(xy(100, 300), xy(700, 320));
+    int crossed = crossings(mesh, cut);
+    mesh.cut(cut);
+    mesh.stopCutting();
+    assertEquals(metrics.cuts(), 1);
+    assertEquals(metrics.edgesSplit(), crossed);
+    assertEquals(metrics.trianglesCreated(), triangles + 4 * crossed);
+
+    mesh.physics(1000. / 30);
+    mesh.physics(1000. / 30, new ForkJoinPool(2));
+    assertEquals(metrics.physicsSteps(), 2);
+    assertTrue(metrics.sweepNanos() > 0 && metrics.sweepNanos() <= metrics.physicsNanos());
+    assertTrue(metrics.maxPhysicsNanos() <= metrics.physicsNanos());
+  }
+
+  static List<Vertex> pair(Vertex a, Vertex b) { return a.id() < b.id() ? asList(a, b) : asList(b, a); }
+
+  static void assertEdges(Mesh mesh) {
+    Set<List<Vertex>> expected = newHashSet(), actual = newHashSet();
+    Set<Integer> ids = newHashSet();
+    for (Triangle t : mesh.triangles()) for (Corner c : t.corners()) expected.add(pair(c.vertex(), c.next().vertex()));
+    for (Edge e : mesh.edges()) { actual.add(pair(e.a(), e.b())); assertTrue(ids.add(e.id())); }
+    assertEquals(mesh.edges().size(), actual.size());
+    assertEquals(actual, expected);
+  }
+
+  @Test public void testEdgeTable() {
+    Mesh mesh = new Mesh(framedPoints(300, 23));
+    assertEdges(mesh);
+    Edge far = null;
+    for (Edge e : mesh.edges()) if (e.a().loc().y() == -1 && e.b().loc().y() == -1) far = e;
+    for (int i = 0; i < 5; i++) {
+      mesh.cut(aToB(xy(100, 250 + 20 * i), xy(700, 270 + 20 * i)));
+      mesh.stopCutting();
+      assertEdges(mesh);
+      mesh.physics(1000. / 30);
+    }
+    mesh.remove(aToB(xy(400, 200), xy(410, 400)));
+    assertEdges(mesh);
+    boolean kept = false;
+    for (Edge e : mesh.edges()) kept |= e.id() == far.id() && e.equals(far);
+    assertTrue(kept);
+    List<Vertex> vs = newArrayList(mesh.vertices());
+    for (int i = 0; i < vs.size(); i += 7) mesh.removeVertex(vs.get(i));
+    assertEdges(mesh);
+  }
+
+  static boolean holds(Triangle t, Vec p) {
+    Vec a = t.a().vertex().loc(), b = t.b().vertex().loc(), c = t.c().vertex().loc();
+    return orient(a, b, p) >= 0 && orient(b, c, p) >= 0 && orient(c, a, p) >= 0;
+  }
+
+  @Test public void testLocate() {
+    Mesh mesh = new Mesh(randomPoints(2000, 14));
+    mesh.cut(aToB(xy(100, 300), xy(700, 320)));
+    mesh.stopCutting();
+    mesh.remove(aToB(xy(400, 0), xy(410, 600)));
+    for (VertexConfig q : randomPoints(500, 15)) {
+      Triangle t = mesh.locate(q.loc);
+      boolean inside = false;
+      for (Triangle u : mesh.triangles()) inside |= holds(u, q.loc);
+      if (t == null) assertTrue(!inside); else assertTrue(holds(t, q.loc));
+    }
+    assertEquals(mesh.locate(xy(-100, -100)), null);
+  }
+
+  /** Points just across a slit from the last one found, so that walks run into it. */
+  @Test public void testLocateAcrossCut() {
+    Mesh mesh = new Mesh(framedPoints(3000, 30));
+    mesh.cut(aToB(xy(100, 300), xy(700, 320)));
+    mesh.stopCutting();
+    Random random = new Random(31);
+    for (int i = 0; i < 200; i++) {
+      Vec q = xy(150 + 500 * random.nextDouble(), 310 + (i % 2 == 0 ? 15 : -15) * random.nextDouble());
+      Triangle t = mesh.locate(q);
+      assertTrue(t != null && holds(t, q));
+    }
+  }
+
+  /** The same calls make the same mesh, even where points lie on edges, in two triangles at once. */
+  @Test public void testDeterministic() {
+    List<List<Integer>> meshes = newArrayList();
+    for (int k = 0; k < 2; k++) {
+      Mesh mesh = new Mesh(gridPoints(20, 20));
+      for (int i = 0; i < 19; i++) for (int j = 1; j < 19; j++) mesh.insert(new VertexConfig(xy(10 * i + 5, 10 * j), VertexPhysics.FREE));
+      mesh.cut(aToB(xy(20, 100), xy(170, 100)));
+      mesh.stopCutting();
+      List<Integer> ids = newArrayList();
+      for (Triangle t : mesh.triangles()) for (Corner c : t.corners()) ids.add(c.vertex().id());
+      meshes.add(ids);
+    }
+    assertEquals(meshes.get(0), meshes.get(1));
+  }
+
+  static void assertCrossings(Mesh mesh, Random random) {
+    for (int i = 0; i < 50; i++) assertCrossing(mesh, aToB(xy(random.nextDouble() * 900 - 50, random.nextDouble() * 700 - 50),
+      xy(random.nextDouble() * 900 - 50, random.nextDouble() * 700 - 50)));
+  }
+
+  static void assertCrossing(Mesh mesh, Line s) {
+    Set<Edge> expected = newHashSet();
+    for (Edge e : mesh.edges()) if (overlap(e.line(), s)) expected.add(e);
+    List<Edge> found = mesh.edgesCrossing(s);
+    assertEquals(found.size(), expected.size());
+    assertEquals(newHashSet(found), expected);
+  }
+
+  @Test public void testEdgesCrossing() {
+    Random random = new Random(16);
+    Mesh mesh = new Mesh(framedPoints(500, 17));
+    assertCrossings(mesh, random);
+    mesh.cut(aToB(xy(100, 300), xy(700, 320)));
+    mesh.stopCutting();
+    mesh.remove(aToB(xy(400, 0), xy(410, 600)));
+    mesh.insert(randomPoints(100, 18).subList(0, 1));
+    assertCrossings(mesh, random);
+    for (int i = 0; i < 30; i++) mesh.physics(1000. / 30);
+    assertCrossings(mesh, random);
+    assertEquals(mesh.edgesCrossing(aToB(xy(100, 100), xy(100, 100))).size(), 0);
+  }
+
+  /** Triangles reaching a far-off vertex span too many cells to file, but are still found. */
+  @Test public void testEdgesCrossingFarVertex() {
+    List<VertexConfig> points = framedPoints(2000, 27);
+    points.add(new VertexConfig(xy(1e9, 300), VertexPhysics.PINNED));
+    Mesh mesh = new Mesh(points);
+    assertCrossings(mesh, new Random(26));
+    assertCrossing(mesh, aToB(xy(5e8, -1e9), xy(5e8, 1e9)));
+    assertCrossing(mesh, aToB(xy(400, 300), xy(1e9, 300)));
+  }
+
+  @Test public void testParallelPhysicsDeterministic() {
+    Mesh one = new Mesh(framedPoints(3000, 22)), four = new Mesh(framedPoints(3000, 22));
+    ForkJoinPool serial = new ForkJoinPool(1), parallel = new ForkJoinPool(4);
+    for (int i = 0; i < 10; i++) { one.physics(1000. / 30, serial); four.physics(1000. / 30, parallel); }
+    serial.shutdown(); parallel.shutdown();
+    List<Vertex> as = newArrayList(one.vertices()), bs = newArrayList(four.vertices());
+    int inside = 0;
+    for (int i = 0; i < as.size(); i++) {
+      Vec a = as.get(i).loc(), b = bs.get(i).loc();
+      assertTrue(a.x() == b.x() && a.y() == b.y());
+      if (a.y() > 0 && a.y() < 600) inside++;
+    }
+    assertTrue(inside > 0);
+    int pinned = 0;
+    for (Vertex v : four.vertices()) if (Math.abs(v.loc().x() - 400) == 401 && Math.abs(v.loc().y() - 300) == 301) pinned++;
+    assertEquals(pinned, 4);
+    assertSwings(four);
+  }
+
+  @Test public void testSnapshot() {
+    Mesh mesh = new Mesh(framedPoints(300, 28));
+    assertEquals(mesh.published(), null);
+    mesh.publish();
+    Snapshot first = mesh.published();
+    assertEquals(first.vertices(), mesh.vertices().size());
+    assertEquals(first.triangles(), mesh.triangles().size());
+    assertEquals(first.edges(), mesh.edges().size());
+    Set<Integer> ids = newHashSet();
+    for (Triangle t : mesh.triangles()) ids.add(t.id());
+    for (int t = 0; t < first.triangles(); t++) {
+      assertTrue(ids.contains(first.triangleId(t)));
+      int a = first.corner(t, 0), b = first.corner(t, 1), c = first.corner(t, 2);
+      assertTrue(orient2d(xy(first.x(a), first.y(a)), xy(first.x(b), first.y(b)), xy(first.x(c), first.y(c))) > 0);
+    }
+    double[] x = new double[first.vertices()];
+    for (int v = 0; v < x.length; v++) x[v] = first.x(v);
+
+    mesh.physics(1000. / 30); mesh.publish();
+    Snapshot moved = mesh.published();
+    assertTrue(moved.sameTopology(first));
+    boolean changed = false;
+    for (int v = 0; v < x.length; v++) { assertEquals(first.x(v), x[v]); changed |= moved.x(v) != x[v]; }
+    assertTrue(changed);
+    Map<Integer, Vec> locs = newHashMap();
+    for (Vertex v : mesh.vertices()) locs.put(v.id(), v.loc());
+    for (int v = 0; v < moved.vertices(); v++) {
+      Vec loc = locs.get(moved.vertexId(v));
+      assertEquals(moved.x(v), loc.x()); assertEquals(moved.y(v), loc.y());
+    }
+
+    mesh.cut(aToB(xy(100, 300), xy(700, 320))); mesh.stopCutting(); mesh.publish();
+    Snapshot cut = mesh.published();
+    assertTrue(!cut.sameTopology(moved));
+    assertEquals(cut.triangles(), mesh.triangles().size());
+    assertEquals(cut.edges(), mesh.edges().size());
+    for (int e = 0; e < cut.edges(); e++) assertTrue(cut.a(e) != cut.b(e));
+  }
+
+  @Test public void testOffHeap() {
+    Mesh heap = new Mesh(framedPoints(400, 19)), direct = new Mesh(Mesh.Storage.OFF_HEAP);
+    direct.setPoints(framedPoints(400, 19));
+    assertDelaunay(direct);
+    for (Mesh mesh : new Mesh[]{ heap, direct }) {
+      mesh.insert(randomPoints(300, 20));
+      mesh.cut(aToB(xy(100, 300), xy(700, 320)));
+      mesh.stopCutting();
+      mesh.remove(aToB(xy(400, 0), xy(410, 600)));
+      mesh.physics(1000. / 30);
+      assertSwings(mesh);
+    }
+    assertEquals(direct.vertices().size(), heap.vertices().size());
+    assertEquals(direct.triangles().size(), heap.triangles().size());
+    direct.close();
+    assertEquals(direct.triangles().size(), 0);
+    direct.setPoints(randomPoints(50, 21));
+    assertSwings(direct);
+    direct.close();
+  }
+
+  /** Enough triangles that the off-heap corners take more than one chunk. */
+  @Test public void testOffHeapChunks() throws IOException {
+    Mesh heap = new Mesh(randomPoints(200000, 34)), direct = new Mesh(Mesh.Storage.OFF_HEAP);
+    direct.setPoints(randomPoints(200000, 34));
+    assertTrue(3 * direct.triangles().size() > 1 << 20);
+    for (Mesh mesh : new Mesh[]{ heap, direct }) mesh.insert(randomPoints(10, 35));
+    Iterator<Triangle> ts = heap.triangles().iterator();
+    for (Triangle t : direct.triangles()) {
+      Triangle u = ts.next();
+      for (int k = 0; k < 3; k++) assertTrue(t.corners().get(k).vertex().loc().sub(u.corners().get(k).vertex().loc()).mag() == 0);
+    }
+    // The edge table is kept by the store too: the same ids and rest lengths are saved.
+    Path heapFile = Files.createTempFile("mesh", ".bin"), directFile = Files.createTempFile("mesh", ".bin");
+    try {
+      heap.save(heapFile); direct.save(directFile);
+      assertTrue(Arrays.equals(Files.readAllBytes(directFile), Files.readAllBytes(heapFile)));
+    } finally {
+      Files.delete(heapFile); Files.delete(directFile);
+    }
+    direct.close();
+  }
+
+  @Test public void testSaveLoad() throws IOException {
+    Mesh mesh = new Mesh(framedPoints(2000, 31));
+    mesh.cut(aToB(xy(100, 300), xy(700, 320))); mesh.stopCutting();
+    mesh.remove(aToB(xy(400, 0), xy(410, 600)));
+    mesh.physics(1000. / 30);
+    Path file = Files.createTempFile("mesh", ".bin");
+    try {
+      mesh.save(file);
+      ForkJoinPool pool = new ForkJoinPool(2);
+      for (Mesh.Storage storage : Mesh.Storage.values()) {
+        Mesh loaded = Mesh.load(file, storage);
+        assertEquals(loaded.vertices().size(), mesh.vertices().size());
+        assertEquals(loaded.triangles().size(), mesh.triangles().size());
+        assertEquals(loaded.edges().size(), mesh.edges().size());
+        assertSwings(loaded);
+        assertEdges(loaded);
+        List<Triangle> ts = newArrayList(mesh.triangles()), lts = newArrayList(loaded.triangles());
+        for (int i = 0; i < ts.size(); i++) for (int k = 0; k < 3; k++) {
+          Vec a = ts.get(i).corners().get(k).vertex().loc(), b = lts.get(i).corners().get(k).vertex().loc();
+          assertTrue(a.x() == b.x() && a.y() == b.y());
+        }
+        // The same springs, rest lengths and velocities move the vertices the same way.
+        Mesh copy = Mesh.load(file);
+        copy.physics(1000. / 30, pool); loaded.physics(1000. / 30, pool);
+        List<Vertex> vs = newArrayList(copy.vertices()), lvs = newArrayList(loaded.vertices());
+        for (int i = 0; i < vs.size(); i++)
+          assertTrue(vs.get(i).loc().sub(lvs.get(i).loc()).mag() < 1e-9);
+        copy.close(); loaded.close();
+      }
+      pool.shutdown();
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testLoadOpenRing() throws IOException {
+    Mesh mesh = new Mesh(framedPoints(200, 36));
+    Path file = Files.createTempFile("mesh", ".bin");
+    try {
+      mesh.save(file);
+      // Make one corner swing to itself, so that its vertex's swings no longer close into one ring.
+      ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+      int table = 24 + 32 * b.getInt(8) + 8 * b.getInt(16), c = 0;
+      while (b.getInt(table + 12 * c + 4) == c) c++;
+      b.putInt(table + 12 * c + 4, c);
+      Files.write(file, b.array());
+      Mesh.load(file);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testLoadOtherFile() throws IOException {
+    Path file = Files.createTempFile("mesh", ".bin");
+    try {
+      Files.write(file, new byte[32]);
+      Mesh.load(file);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+package org.chris_martin.delaunay;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.chris_martin.delaunay.Mesh.VertexConfig;
+import org.chris_martin.delaunay.Mesh.VertexPhysics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import static org.testng.collections.Lists.newArrayList;
+
+public class PointFileTest {
+
+  static List<VertexConfig> read(String text, int chunk) throws IOException {
+    return PointFile.read(Channels.newChannel(new ByteArrayInputStream(text.getBytes(Charset.forName("US-ASCII")))), chunk);
+  }
+
+  static void assertPoint(VertexConfig p, double x, double y, VertexPhysics physics) {
+    assertEquals(p.loc.x(), x); assertEquals(p.loc.y(), y); assertEquals(p.physics, physics);
+  }
+
+  @Test public void testText() throws IOException {
+    String text = "x,y\n# a comment\n\n1 2\n-3.5,4e2 pinned\r\n  .25\t, -0 PINNED\n+7E-3 1e400\n0.1 1234567890123456789012";
+    for (int chunk : new int[]{ 32, 1 << 10 }) {
+      List<VertexConfig> ps = read(text, chunk);
+      assertEquals(ps.size(), 5);
+      assertPoint(ps.get(0), 1, 2, VertexPhysics.FREE);
+      assertPoint(ps.get(1), -3.5, 400, VertexPhysics.PINNED);
+      assertPoint(ps.get(2), .25, -0., VertexPhysics.PINNED);
+      assertPoint(ps.get(3), 7e-3, Double.POSITIVE_INFINITY, VertexPhysics.FREE);
+      assertPoint(ps.get(4), .1, 1234567890123456789012., VertexPhysics.FREE);
+    }
+  }
+
+  @Test public void testNumbersRoundCorrectly() throws IOException {
+    Random random = new Random(40);
+    StringBuilder text = new StringBuilder();
+    List<Double> expected = newArrayList();
+    for (int i = 0; i < 2000; i++) {
+      double x = random.nextDouble() * 1000 - 500, y = Double.longBitsToDouble(random.nextLong() >>> 2);
+      String a = i % 3 == 0 ? String.format("%.3f", x) : Double.toString(x), b = Double.toString(y);
+      text.append(a).append(' ').append(b).append('\n');
+      expected.add(Double.parseDouble(a)); expected.add(Double.parseDouble(b));
+    }
+    List<VertexConfig> ps = read(text.toString(), 64);
+    assertEquals(ps.size(), 2000);
+    for (int i = 0; i < ps.size(); i++) {
+      assertEquals(ps.get(i).loc.x(), expected.get(2 * i));
+      assertEquals(ps.get(i).loc.y(), expected.get(2 * i + 1));
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testBadLine() throws IOException {
+    read("1 2\n3 four\n", 64);
+  }
+
+  @Test public void testHeaderAfterComments() throws IOException {
+    List<VertexConfig> ps = read("# points\n\n  x, y\n1 2\n", 64);
+    assertEquals(ps.size(), 1);
+    assertPoint(ps.get(0), 1, 2, VertexPhysics.FREE);
+  }
+
+  @Test public void testMalformedLines() {
+    for (String line : new String[]{ "1 2 3", "1.2.3 4", "1 2.5.", "1 2pinned", "1 2 pinnedx", "1 2 pinned 3", "1", "1," }) {
+      try {
+        read("1 2\n" + line + "\n", 64);
+        fail(line);
+      } catch (IOException e) {
+        assertTrue(e.getMessage().startsWith("Line 2 "), e.getMessage());
+      }
+    }
+  }
+
+  @Test public void testBinary() throws IOException {
+    List<VertexConfig> points = Simulation.frame(5000, new Random(41));
+    Path file = Files.createTempFile("points", ".bin");
+    try {
+      PointFile.write(file, points);
+      assertEquals(Files.size(file), PointFile.POINT_HEADER + PointFile.POINT_RECORD * (long) points.size());
+      List<VertexConfig> read = PointFile.read(file);
+      assertEquals(read.size(), points.size());
+      for (int i = 0; i < points.size(); i++)
+        assertPoint(read.get(i), points.get(i).loc.x(), points.get(i).loc.y(), points.get(i).physics);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+}
@@ -0,0 +1,48 @@
+package org.chris_martin.delaunay;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.chris_martin.delaunay.Geometry.aToB;
+import static org.chris_martin.delaunay.Geometry.xy;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class SimulationTest {
+
+  @Test public void testPercentile() {
+    long[] sorted = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+    assertEquals(Simulation.percentile(sorted, .5), 5);
+    assertEquals(Simulation.percentile(sorted, .9), 9);
+    assertEquals(Simulation.percentile(sorted, .99), 10);
+    assertEquals(Simulation.percentile(sorted, 0), 1);
+    assertEquals(Simulation.percentile(new long[]{ 7 }, .5), 7);
+  }
+
+  @Test public void testScriptedEvents() {
+    Mesh mesh = new Mesh(Simulation.frame(500, new Random(25)));
+    final int[] seen = new int[3];
+    Simulation simulation = new Simulation(mesh, 1000. / 30, 2, null)
+      .at(0, new Simulation.Event() { public void apply(Mesh mesh) { seen[0]++; } })
+      .at(3, Simulation.cut(aToB(xy(100, 300), xy(700, 310))))
+      .at(3, new Simulation.Event() { public void apply(Mesh mesh) { seen[1] = mesh.triangles().size(); } })
+      .at(7, new Simulation.Event() { public void apply(Mesh mesh) { seen[2]++; } });
+    int before = mesh.triangles().size();
+    long[] durations = simulation.run(5);
+    assertEquals(durations.length, 5);
+    assertEquals(simulation.step(), 5);
+    assertEquals(seen[0], 1);
+    assertTrue(seen[1] > before);
+    assertEquals(seen[2], 0);
+    simulation.run(3);
+    assertEquals(seen[2], 1);
+    MeshTest.assertSwings(mesh);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class) public void testNoSteps() throws IOException {
+    Simulation.main(new String[]{ "-n", "100", "-steps", "0" });
+  }
+
+}
@@ -0,0 +1,59 @@
+package org.chris_martin.delaunay;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class SpringKernelTest {
+
+  /** Springs of random lengths, a few of them with both ends at one point, and an odd count to leave a tail. */
+  static double[][] springs(int n, long seed) {
+    Random random = new Random(seed);
+    double[][] s = new double[5][n];
+    for (int i = 0; i < n; i++) {
+      boolean still = i % 11 == 0;
+      s[0][i] = still ? 0 : random.nextGaussian() * 10; s[1][i] = still ? 0 : random.nextGaussian() * 10;
+      s[2][i] = s[0][i] + random.nextGaussian(); s[3][i] = s[1][i] + random.nextGaussian();
+      s[4][i] = Math.abs(random.nextGaussian() * 10);
+    }
+    return s;
+  }
+
+  @Test public void testForces() {
+    double[] f = new double[1], g = new double[1];
+    // Stretched to twice its rest length along x: pulled toward the neighbor.
+    SpringKernel.SCALAR.forces(1, new double[]{ 2 }, new double[]{ 0 }, new double[]{ 2 }, new double[]{ 0 },
+      new double[]{ 1 }, f, g);
+    assertEquals(f[0], Mesh.SPRING); assertEquals(g[0], 0.);
+    // Both ends at one point: pushed along x.
+    SpringKernel.SCALAR.forces(1, new double[]{ 0 }, new double[]{ 0 }, new double[]{ 0 }, new double[]{ 0 },
+      new double[]{ 1 }, f, g);
+    assertEquals(f[0], -Mesh.SPRING); assertEquals(g[0], 0.);
+  }
+
+  @Test public void testVelocitiesDamped() {
+    double[] ax = { 0, Mesh.DAMPING / 2 }, ay = { 0, 0 };
+    SpringKernel.SCALAR.velocities(2, new double[]{ 0, 0 }, new double[]{ 0, 0 }, ax, ay);
+    assertEquals(ax[0], 0.); assertEquals(ax[1], 0.);
+  }
+
+  /** Whichever kernel best() finds must agree with the scalar one exactly. */
+  @Test public void testBestMatchesScalar() {
+    SpringKernel best = SpringKernel.best();
+    int n = 1001;
+    double[][] s = springs(n, 24);
+    double[] fx = new double[n], fy = new double[n], gx = new double[n], gy = new double[n];
+    SpringKernel.SCALAR.forces(n, s[0], s[1], s[2], s[3], s[4], fx, fy);
+    best.forces(n, s[0], s[1], s[2], s[3], s[4], gx, gy);
+    assertTrue(Arrays.equals(fx, gx) && Arrays.equals(fy, gy), best.toString());
+    double[] ax = fx.clone(), ay = fy.clone();
+    SpringKernel.SCALAR.velocities(n, s[0], s[1], fx, fy);
+    best.velocities(n, s[0], s[1], ax, ay);
+    assertTrue(Arrays.equals(fx, ax) && Arrays.equals(fy, ay), best.toString());
+  }
+
+}
@@ -0,0 +1,82 @@
+package org.chris_martin.delaunay;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Sets.newHashSet;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class StreamingTriangulationTest {
+
+  /** Random points sorted by x, then by y. */
+  static double[][] sortedPoints(int n, long seed) {
+    Random random = new Random(seed);
+    double[] x = new double[n], y = new double[n];
+    for (int i = 0; i < n; i++) { x[i] = random.nextDouble(); y[i] = random.nextDouble(); }
+    int[] a = new int[n];
+    for (int i = 0; i < n; i++) a[i] = i;
+    Triangulation.sort(a, x, y);
+    double[] sx = new double[n], sy = new double[n];
+    for (int i = 0; i < n; i++) { sx[i] = x[a[i]]; sy[i] = y[a[i]]; }
+    return new double[][]{ sx, sy };
+  }
+
+  static class Collector implements StreamingTriangulation.Sink {
+    final List<long[]> triangles = newArrayList();
+    public void triangle(long a, long b, long c) { triangles.add(new long[]{ a, b, c }); }
+  }
+
+  @Test public void testMatchesInMemory() {
+    double[][] p = sortedPoints(3000, 11);
+    Collector sink = new Collector();
+    StreamingTriangulation s = new StreamingTriangulation(sink);
+    for (int i = 0; i < 3000; i += 700) s.add(p[0], p[1], i, Math.min(i + 700, 3000));
+    s.finish();
+    Set<String> streamed = newHashSet(), whole = newHashSet();
+    for (long[] t : sink.triangles) {
+      double ax = p[0][(int) t[0]], ay = p[1][(int) t[0]];
+      double bx = p[0][(int) t[1]], by = p[1][(int) t[1]], cx = p[0][(int) t[2]], cy = p[1][(int) t[2]];
+      assertTrue((bx - ax) * (cy - ay) - (by - ay) * (cx - ax) > 0);
+      long[] v = t.clone(); Arrays.sort(v); streamed.add(Arrays.toString(v));
+    }
+    Triangulation t = Triangulation.of(p[0], p[1]);
+    for (int i = 0; i < t.size(); i++) {
+      long[] v = { t.vertex[3*i], t.vertex[3*i+1], t.vertex[3*i+2] }; Arrays.sort(v); whole.add(Arrays.toString(v));
+    }
+    assertEquals(sink.triangles.size(), streamed.size());
+    assertEquals(streamed, whole);
+  }
+
+  @Test public void testFrontStaysSmall() {
+    int n = 100000;
+    double[][] p = sortedPoints(n, 12);
+    Collector sink = new Collector();
+    StreamingTriangulation s = new StreamingTriangulation(sink);
+    int peak = 0;
+    for (int i = 0; i < n; i++) { s.add(p[0][i], p[1][i]); peak = Math.max(peak, s.active()); }
+    s.finish();
+    assertEquals(s.active(), 0);
+    assertTrue(peak < n / 20, "peak " + peak);
+  }
+
+  @Test public void testCollinearStartAndDuplicates() {
+    Collector sink = new Collector();
+    StreamingTriangulation s = new StreamingTriangulation(sink);
+    s.add(new double[]{ 0, 1, 1, 2, 3, 3 }, new double[]{ 0, 0, 0, 0, -1, 5 });
+    s.finish();
+    assertEquals(sink.triangles.size(), 5);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testOutOfOrder() {
+    StreamingTriangulation s = new StreamingTriangulation(new Collector());
+    s.add(1, 0); s.add(0, 0);
+  }
+
+}
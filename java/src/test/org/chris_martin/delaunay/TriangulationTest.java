@@ -0,0 +1,54 @@
+package org.chris_martin.delaunay;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static org.testng.Assert.assertEquals;
+
+public class TriangulationTest {
+
+  /** Each triangle as its sorted point indices, so that triangulations can be compared. */
+  static Set<String> triangles(Triangulation t) {
+    Set<String> ts = newHashSet();
+    for (int i = 0; i < t.size(); i++) {
+      int[] v = { t.vertex[3*i], t.vertex[3*i+1], t.vertex[3*i+2] };
+      Arrays.sort(v);
+      ts.add(Arrays.toString(v));
+    }
+    return ts;
+  }
+
+  @Test public void testParallelMatchesSequential() {
+    Random random = new Random(4);
+    int n = 5 * Triangulation.PARALLEL_CUTOFF;
+    double[] x = new double[n], y = new double[n];
+    for (int i = 0; i < n; i++) { x[i] = random.nextDouble(); y[i] = random.nextDouble(); }
+    ForkJoinPool pool = new ForkJoinPool(4);
+    Triangulation parallel = Triangulation.of(x, y, pool);
+    pool.shutdown();
+    Triangulation sequential = Triangulation.of(x, y);
+    assertEquals(parallel.size(), sequential.size());
+    assertEquals(triangles(parallel), triangles(sequential));
+    for (int c = 0; c < parallel.vertex.length; c++) {
+      int o = parallel.opposite[c];
+      if (o >= 0) assertEquals(parallel.opposite[o], c);
+    }
+  }
+
+  @Test public void testCollinear() {
+    assertEquals(Triangulation.of(new double[]{ 0, 1, 2, 3 }, new double[]{ 0, 1, 2, 3 }).size(), 0);
+  }
+
+  @Test public void testSort() {
+    double[] x = { 3, 1, 2, 1 }, y = { 0, 5, 0, 4 };
+    int[] a = { 0, 1, 2, 3 };
+    Triangulation.sort(a, x, y);
+    assertEquals(a, new int[]{ 3, 1, 2, 0 });
+  }
+
+}
@@ -0,0 +1,48 @@
+package org.chris_martin.delaunay;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static org.chris_martin.delaunay.Mesh.DAMPING;
+import static org.chris_martin.delaunay.Mesh.INERTIA;
+import static org.chris_martin.delaunay.Mesh.SPRING;
+
+/**
+ * SpringKernel on the widest double vectors the machine has, with the scalar kernel for the
+ * tail of each batch. Loaded by SpringKernel.best() only; needs --add-modules jdk.incubator.vector.
+ */
+final class VectorSpringKernel extends SpringKernel {
+
+  private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+
+  void forces(int n, double[] dx, double[] dy, double[] px, double[] py, double[] rest, double[] fx, double[] fy) {
+    int i = 0;
+    for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+      DoubleVector x = DoubleVector.fromArray(S, dx, i), y = DoubleVector.fromArray(S, dy, i);
+      DoubleVector qx = DoubleVector.fromArray(S, px, i), qy = DoubleVector.fromArray(S, py, i);
+      DoubleVector stretch = qx.mul(qx).add(qy.mul(qy)).lanewise(VectorOperators.SQRT).sub(DoubleVector.fromArray(S, rest, i));
+      DoubleVector d = x.mul(x).add(y.mul(y)).lanewise(VectorOperators.SQRT);
+      VectorMask<Double> still = d.eq(0);
+      x.mul(stretch).mul(SPRING).div(d).blend(stretch.mul(SPRING), still).intoArray(fx, i);
+      y.mul(stretch).mul(SPRING).div(d).blend(0, still).intoArray(fy, i);
+    }
+    forces(i, n, dx, dy, px, py, rest, fx, fy);
+  }
+
+  void velocities(int n, double[] vx, double[] vy, double[] ax, double[] ay) {
+    int i = 0;
+    for (int bound = S.loopBound(n); i < bound; i += S.length()) {
+      DoubleVector x = DoubleVector.fromArray(S, vx, i).mul(INERTIA-1).add(DoubleVector.fromArray(S, ax, i)).div(INERTIA);
+      DoubleVector y = DoubleVector.fromArray(S, vy, i).mul(INERTIA-1).add(DoubleVector.fromArray(S, ay, i)).div(INERTIA);
+      DoubleVector speed = x.mul(x).add(y.mul(y)).lanewise(VectorOperators.SQRT);
+      DoubleVector damped = speed.sub(DAMPING).max(0).div(speed).blend(0, speed.eq(0));
+      x.mul(damped).intoArray(ax, i); y.mul(damped).intoArray(ay, i);
+    }
+    velocities(i, n, vx, vy, ax, ay);
+  }
+
+  public String toString() { return "vector " + S.length() + "x64"; }
+
+}